@@ -0,0 +1,321 @@
+package com.daon.idxAuthRequestNode;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Per-JVM cache of the OAuth2 access tokens the nodes present to IdentityX.
+ *
+ * Tokens are keyed by client ID, token endpoint URL and scope and are reused until shortly before the
+ * {@code expires_in} returned by the token endpoint, or a conservative 60 seconds when the endpoint does not
+ * return one. A token that is used inside its refresh window is renewed in the background so callers keep
+ * getting a cached token while the new one is fetched. Fetches go through {@link IdxTokenClient}, so they are
+ * bounded by its timeouts.
+ *
+ * At most one fetch per credential set is in flight at a time; concurrent callers that need a new token
+ * wait for that fetch instead of sending their own client_credentials grant. A fetch fails, for all of its
+ * callers, when the endpoint cannot be reached, answers with a status other than 200 or returns no
+ * {@code access_token}. The failure is then handed to callers without a new fetch for a short while, read
+ * from the {@code com.daon.idx.token.failureCacheMs} system property (default 5000), so a failing endpoint
+ * is not hit by every login.
+ */
+final class IdxAccessTokenCache {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	/** Upper bound on how long before the real expiry a token stops being handed out. */
+	private static final long EXPIRY_SAFETY_MARGIN_MS = 30_000L;
+
+	/** Upper bound on how long before the usable expiry a background refresh is started. */
+	private static final long REFRESH_AHEAD_MS = 60_000L;
+
+	/** Lifetime assumed for a token returned without {@code expires_in}. */
+	static final long DEFAULT_LIFETIME_MS = 60_000L;
+
+	private static final long FAILURE_CACHE_MS = Long.getLong("com.daon.idx.token.failureCacheMs", 5_000L);
+
+	private static final ConcurrentHashMap<Key, Entry> tokens = new ConcurrentHashMap<>();
+
+	private static final AtomicLong hitCount = new AtomicLong();
+	private static final AtomicLong missCount = new AtomicLong();
+	private static final AtomicLong refreshCount = new AtomicLong();
+	private static final AtomicLong coalescedCount = new AtomicLong();
+	private static final AtomicLong failureHitCount = new AtomicLong();
+
+	static {
+		IdxMetrics.registerGauge("idx_token_cache_entries", IdxAccessTokenCache::size);
+		IdxMetrics.registerCounter("idx_token_cache_hits_total", "Access tokens served from the cache", hitCount::get);
+		IdxMetrics.registerCounter("idx_token_cache_misses_total", "Access tokens not in the cache", missCount::get);
+		IdxMetrics.registerCounter("idx_token_cache_refreshes_total", "Access tokens refreshed ahead of expiry", refreshCount::get);
+		IdxMetrics.registerCounter("idx_token_cache_coalesced_total", "Token requests that joined a fetch in flight", coalescedCount::get);
+		IdxMetrics.registerCounter("idx_token_cache_failure_hits_total", "Token requests failed from a recent fetch failure", failureHitCount::get);
+	}
+
+	private IdxAccessTokenCache() {
+	}
+
+	/**
+	 * Returns a valid access token for the given credentials, fetching one from the token endpoint only when
+	 * no usable token is cached.
+	 */
+	static String getAccessToken(String clientID, String clientSecret, String tokenURL, String scope) throws Exception {
+		return getToken(clientID, clientSecret, tokenURL, scope).getValue();
+	}
+
+	/**
+	 * Same as {@link #getAccessToken(String, String, String, String)} but also returns when the token stops
+	 * being usable, so callers can carry it for the rest of a journey.
+	 */
+	static Token getToken(String clientID, String clientSecret, String tokenURL, String scope) throws Exception {
+		CompletableFuture<Token> future = getTokenAsync(clientID, clientSecret, tokenURL, scope);
+		long maxWait = IdxTokenClient.maxWaitMillis();
+		try {
+			return future.get(maxWait, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			throw new NodeProcessException("Timed out after " + maxWait
+					+ "ms waiting for the access token fetch for clientID " + clientID);
+		} catch (ExecutionException ex) {
+			throw new NodeProcessException("Access token fetch failed for clientID " + clientID, ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new NodeProcessException("Interrupted waiting for the access token fetch", ex);
+		}
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getToken(String, String, String, String)}. A cached token is returned as
+	 * an already completed future, so callers can start this early and overlap the fetch with other work.
+	 */
+	static CompletableFuture<Token> getTokenAsync(String clientID, String clientSecret, String tokenURL, String scope) {
+		Key key = new Key(clientID, tokenURL, scope);
+		Entry entry = tokens.compute(key, (k, existing) -> existing != null && Objects.equals(existing.clientSecret, clientSecret)
+				? existing : new Entry(k, clientSecret));
+
+		long now = System.currentTimeMillis();
+		Token token = entry.token;
+		if (token != null && now < token.usableUntil) {
+			hitCount.incrementAndGet();
+			if (now >= token.refreshAt) {
+				scheduleRefresh(entry);
+			}
+			return CompletableFuture.completedFuture(token);
+		}
+
+		Failure failure = entry.failure;
+		if (failure != null && now < failure.until) {
+			failureHitCount.incrementAndGet();
+			return CompletableFuture.failedFuture(failure.cause);
+		}
+
+		missCount.incrementAndGet();
+		logger.debug("Access token cache miss for clientID [{}]", clientID);
+		return fetchShared(entry);
+	}
+
+	static long getHitCount() {
+		return hitCount.get();
+	}
+
+	static long getMissCount() {
+		return missCount.get();
+	}
+
+	static long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	static long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	static int size() {
+		return tokens.size();
+	}
+
+	private static void scheduleRefresh(Entry entry) {
+		Failure failure = entry.failure;
+		if (failure != null && System.currentTimeMillis() < failure.until) {
+			return;
+		}
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		fetchShared(entry).whenComplete((token, ex) -> {
+			entry.refreshing.set(false);
+			if (ex != null) {
+				// The current token is still usable, the next hit in the refresh window will try again
+				logger.warn("Background access token refresh failed for clientID [{}]: {}", entry.key.clientID, ex.toString());
+			} else {
+				refreshCount.incrementAndGet();
+				logger.debug("Refreshed access token ahead of expiry for clientID [{}]", entry.key.clientID);
+			}
+		});
+	}
+
+	/**
+	 * Joins the fetch already in flight for this credential set, or starts one if there is none.
+	 */
+	private static CompletableFuture<Token> fetchShared(Entry entry) {
+		CompletableFuture<Token> mine = new CompletableFuture<>();
+		CompletableFuture<Token> shared = entry.inFlight.compareAndExchange(null, mine);
+
+		if (shared != null) {
+			coalescedCount.incrementAndGet();
+			return shared;
+		}
+
+		// Another leader may have finished between our cache check and taking the lead
+		Token current = entry.token;
+		if (current != null && System.currentTimeMillis() < current.refreshAt) {
+			entry.inFlight.set(null);
+			mine.complete(current);
+			return mine;
+		}
+
+		long start = System.nanoTime();
+		try {
+			IdxTokenClient.requestToken(entry.request)
+					.whenComplete((token, ex) -> completeFetch(entry, mine, start, token, ex));
+		} catch (RuntimeException ex) {
+			// The request could not even be started, the waiting callers must not wait for it
+			completeFetch(entry, mine, start, null, ex);
+		}
+		return mine;
+	}
+
+	/**
+	 * Stores the outcome of a fetch, releases the lead and hands the outcome to the waiting callers.
+	 */
+	private static void completeFetch(Entry entry, CompletableFuture<Token> mine, long start, Token token,
+			Throwable ex) {
+		IdxMetrics.recordLatency(IdxMetrics.TOKEN_FETCH_SECONDS, System.nanoTime() - start, "endpoint", entry.key.tokenURL);
+		if (ex == null) {
+			entry.token = token;
+			entry.failure = null;
+		} else {
+			IdxMetrics.increment(IdxMetrics.TOKEN_FETCH_ERRORS_TOTAL, "endpoint", entry.key.tokenURL);
+			Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			entry.failure = new Failure(cause, System.currentTimeMillis() + FAILURE_CACHE_MS);
+		}
+		entry.inFlight.set(null);
+		if (ex != null) {
+			mine.completeExceptionally(ex);
+		} else {
+			mine.complete(token);
+		}
+	}
+
+	private static final class Key {
+		private final String clientID;
+		private final String tokenURL;
+		private final String scope;
+
+		Key(String clientID, String tokenURL, String scope) {
+			this.clientID = clientID;
+			this.tokenURL = tokenURL;
+			this.scope = scope;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return Objects.equals(clientID, other.clientID) && Objects.equals(tokenURL, other.tokenURL)
+					&& Objects.equals(scope, other.scope);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(clientID, tokenURL, scope);
+		}
+	}
+
+	/**
+	 * One credential set. The Basic header and form body never change for a credential set, so the token
+	 * request is built once and re-sent on every fetch.
+	 */
+	private static final class Entry {
+		private final Key key;
+		private final String clientSecret;
+		private final HttpRequest request;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		private final AtomicReference<CompletableFuture<Token>> inFlight = new AtomicReference<>();
+		private volatile Token token;
+		private volatile Failure failure;
+
+		Entry(Key key, String clientSecret) {
+			this.key = key;
+			this.clientSecret = clientSecret;
+
+			String basic = Base64.getEncoder()
+					.encodeToString((key.clientID + ":" + clientSecret).getBytes(StandardCharsets.UTF_8));
+
+			Map<Object, Object> data = new LinkedHashMap<>();
+			data.put("grant_type", "client_credentials");
+			data.put("scope", key.scope);
+
+			this.request = IdxTokenClient.newRequestBuilder().POST(IdxCommon.buildFormDataFromMap(data)).uri(URI.create(key.tokenURL))
+					.setHeader("Authorization", "Basic " + basic)
+					.setHeader("Content-Type", "application/x-www-form-urlencoded").build();
+		}
+	}
+
+	/**
+	 * The last fetch failure of a credential set, handed to callers until it expires.
+	 */
+	private static final class Failure {
+		private final Throwable cause;
+		private final long until;
+
+		Failure(Throwable cause, long until) {
+			this.cause = cause;
+			this.until = until;
+		}
+	}
+
+	static final class Token {
+		private final String value;
+		private final long usableUntil;
+		private final long refreshAt;
+
+		Token(String value, long issuedAt, long lifetimeMillis) {
+			this.value = value;
+			long margin = Math.min(EXPIRY_SAFETY_MARGIN_MS, lifetimeMillis / 10);
+			this.usableUntil = issuedAt + lifetimeMillis - margin;
+			this.refreshAt = usableUntil - Math.min(REFRESH_AHEAD_MS, lifetimeMillis / 5);
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		long getUsableUntil() {
+			return usableUntil;
+		}
+
+		long getRefreshAt() {
+			return refreshAt;
+		}
+	}
+}
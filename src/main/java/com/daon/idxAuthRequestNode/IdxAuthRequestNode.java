@@ -16,15 +16,14 @@
 
 package com.daon.idxAuthRequestNode;
 
-import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
-import static com.daon.idxAuthRequestNode.IdxCommon.objectMapper;
+import static com.daon.idxAuthRequestNode.IdxCommon.getTenant;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Inject;
 
@@ -36,21 +35,14 @@ import org.forgerock.openam.auth.node.api.NodeProcessException;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.util.i18n.PreferredLocales;
 
-import com.daon.identityx.rest.model.def.PolicyStatusEnum;
 import com.daon.identityx.rest.model.def.TransactionPushNotificationTypeEnum;
+import com.daon.identityx.rest.model.pojo.Application;
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+import com.daon.identityx.rest.model.pojo.Policy;
 import com.daon.identityx.rest.model.pojo.User;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
-import com.identityx.clientSDK.TenantRepoFactory;
-import com.identityx.clientSDK.collections.ApplicationCollection;
-import com.identityx.clientSDK.collections.PolicyCollection;
 import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
-import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
-import com.identityx.clientSDK.repositories.ApplicationRepository;
-import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
-import com.identityx.clientSDK.repositories.PolicyRepository;
 import com.sun.identity.sm.RequiredValueValidator;
 
 /**
@@ -59,7 +51,7 @@ import com.sun.identity.sm.RequiredValueValidator;
 @Node.Metadata(outcomeProvider = IdxAuthRequestNode.IdxAuthRequestOutcomeProvider.class, configClass = IdxAuthRequestNode.Config.class, tags = {"marketplace", "trustnetwork", "multi-factor authentication" })
 public class IdxAuthRequestNode implements Node {
 
-	private String loggerPrefix = "[IdentityX Auth Request Initiator Node][Marketplace] ";
+	private static final String loggerPrefix = "[IdentityX Auth Request Initiator Node][Marketplace] ";
 
 	private static final String BUNDLE = IdxAuthRequestNode.class.getName();
 
@@ -105,7 +97,7 @@ public class IdxAuthRequestNode implements Node {
 	}
 
 	private final Config config;
-	private static LoggerWrapper logger = new LoggerWrapper();
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 
 	/**
 	 * Create the node.
@@ -117,86 +109,73 @@ public class IdxAuthRequestNode implements Node {
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		User user;
 
 		try {
 			try {
-				user = objectMapper.readValue(context.getStateFor(this).get(IdxCommon.IDX_USER_KEY).asString(),
-						User.class);
+				user = IdxCommon.getUser(context.getStateFor(this));
 			} catch (IOException e) {
-				logger.error(loggerPrefix + "Can't find user in SharedState");
+				logger.error("Can't find user in SharedState");
 				throw new NodeProcessException(e);
 			}
 
-			TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context, this);
-			logger.debug(loggerPrefix + "Connected to the IdentityX Server");
+			IdxTenant tenant = getTenant(context, this);
+			logger.debug("Connected to the IdentityX Server");
 
-			String authHref = generateAuthenticationRequest(user, config.policyName(), tenantRepoFactory, context);
-			logger.debug(loggerPrefix + "Auth href: " + authHref);
+			String authHref = generateAuthenticationRequest(user, config.policyName(), tenant, context);
+			logger.debug("Auth href: {}", authHref);
 
 			// Place the href value in sharedState
-			logger.debug(loggerPrefix + "Setting auth URL in shared state...");
+			logger.debug("Setting auth URL in shared state...");
 			context.getStateFor(this).putShared(IdxCommon.IDX_HREF_KEY, authHref);
 
 			return Action.goTo(IdxAuthRequestOutcome.NEXT_OUTCOME.name()).build();
 		} catch (Exception ex) {
-			logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-			ex.printStackTrace();
-			context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+			IdxErrorReporter.report(context, this, logger, ex);
 			return Action.goTo(IdxAuthRequestOutcome.ERROR_OUTCOME.name()).build();
 		}
 	}
 
-	private String generateAuthenticationRequest(User user, String policyName, TenantRepoFactory tenantRepoFactory, TreeContext context)
+	private String generateAuthenticationRequest(User user, String policyName, IdxTenant tenant, TreeContext context)
 			throws Exception {
 
 		AuthenticationRequest request = new AuthenticationRequest();
 		if (user == null) {
-			String error = loggerPrefix + "Error retrieving user";
+			String error = "Error retrieving user";
 			logger.error(error);
 			throw new NodeProcessException(error);
 		} else {
-			logger.debug(loggerPrefix + "User found with ID " + user.getUserId());
+			logger.debug("User found with ID {}", user.getUserId());
 			request.setUser(user);
 		}
 
-		PolicyQueryHolder holder = new PolicyQueryHolder();
-		holder.getSearchSpec().setPolicyId(policyName);
-		holder.getSearchSpec().setStatus(PolicyStatusEnum.ACTIVE);
-		PolicyRepository policyRepo = tenantRepoFactory.getPolicyRepo();
-		PolicyCollection policyCollection;		
-		
-		try {
-			//policyCollection = policyRepo.list(holder);
-			policyCollection = policyRepo.list(holder, (HashMap<String, String>) IdxCommon.getAccessToken(context,this));
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
-		}
-		if (policyCollection.getItems().length > 0) {
-			logger.debug(loggerPrefix + "Setting Policy On Authentication Request");
-			request.setPolicy(policyCollection.getItems()[0]);
-		} else {
-			logger.error(loggerPrefix + "Could not find an active policy with the PolicyId: " + policyName);
-			throw new NodeProcessException(
-					loggerPrefix + "Could not find an active policy with the PolicyId: " + policyName);
-		}
+		// One token for the policy, application and create calls
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
 
+		// The policy and application lookups are independent, run them side by side
 		String appId = config.applicationId();
-		ApplicationRepository applicationRepo = tenantRepoFactory.getApplicationRepo();
-		ApplicationQueryHolder applicationQueryHolder = new ApplicationQueryHolder();
-		applicationQueryHolder.getSearchSpec().setApplicationId(appId);
-		ApplicationCollection applicationCollection;
-		try {
-			applicationCollection = applicationRepo.list(applicationQueryHolder, (HashMap<String, String>) IdxCommon.getAccessToken(context,this));
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
+		CompletableFuture<Policy> policyLookup = IdxLookupExecutor.findPolicy(tenant, policyName, requestHeaders);
+		CompletableFuture<Application> applicationLookup = IdxLookupExecutor.findApplication(tenant, appId, requestHeaders);
+
+		Policy policy = IdxLookupExecutor.await(policyLookup, IdxTenant.OP_POLICY_LIST);
+		if (policy != null) {
+			logger.debug("Setting Policy On Authentication Request");
+			request.setPolicy(policy);
+		} else {
+			logger.debug("Could not find an active policy with the PolicyId: {}", policyName);
+			throw new NodeProcessException("Could not find an active policy with the PolicyId: " + policyName);
 		}
 
-		if (applicationCollection.getItems().length > 0) {
-			request.setApplication(applicationCollection.getItems()[0]);
+		Application application = IdxLookupExecutor.await(applicationLookup, IdxTenant.OP_APPLICATION_LIST);
+		if (application != null) {
+			request.setApplication(application);
 		} else {
-			logger.debug(loggerPrefix + "No Application was found with this name " + appId);
-			throw new NodeProcessException(loggerPrefix + "No Application was found with this name " + appId);
+			logger.debug("No Application was found with this name {}", appId);
+			throw new NodeProcessException("No Application was found with this name " + appId);
 		}
 
 		request.setDescription("OpenAM has Requested an Authentication.");
@@ -213,15 +192,16 @@ public class IdxAuthRequestNode implements Node {
 			request.setPushNotificationType(TransactionPushNotificationTypeEnum.VERIFY_WITH_CONFIRMATION);
 		}
 
-		AuthenticationRequestRepository authenticationRequestRepo = tenantRepoFactory.getAuthenticationRequestRepo();
+		AuthenticationRequest created;
 		try {
-			request = authenticationRequestRepo.create(request, (HashMap<String, String>) IdxCommon.getAccessToken(context,this));
+			created = tenant.execute(IdxTenant.OP_AUTH_REQUEST_CREATE,
+					f -> f.getAuthenticationRequestRepo().create(request, requestHeaders));
 		} catch (IdxRestException e) {
-			logger.debug(loggerPrefix + "Error creating authentication request for user: " + user.getUserId());
+			logger.debug("Error creating authentication request for user: {}", user.getUserId());
 			throw new NodeProcessException(e);
 		}
-		logger.debug(loggerPrefix + "Added an authentication request, - authRequestId: {}" + request.getId());
-		return request.getHref();
+		logger.debug("Added an authentication request, - authRequestId: {}", created.getId());
+		return created.getHref();
 	}
 
 	/**
@@ -56,7 +56,7 @@ import org.forgerock.openam.plugins.PluginException;
  */
 public class IdxAuthRequestNodePlugin extends AbstractNodeAmPlugin {
 
-	static String currentVersion = "1.6.8";
+	static String currentVersion = "1.6.9";
 	
     /** 
      * Specify the Map of list of node classes that the plugin is providing. These will then be installed and
@@ -84,8 +84,10 @@ public class IdxAuthRequestNodePlugin extends AbstractNodeAmPlugin {
 		
 		//Force Upgrade of Nodes, requires changing currentVersion=
 		pluginTools.upgradeAuthNode(IdxCheckEnrollmentStatus.class);
+		pluginTools.upgradeAuthNode(IdxAuthStatusNode.class);
 		pluginTools.upgradeAuthNode(IdxMobileAuthRequestNode.class);
 		pluginTools.upgradeAuthNode(IdxMobileValidateAuthRequestNode.class);
+		pluginTools.upgradeAuthNode(IdxSponsorUser.class);
 		super.upgrade(fromVersion);
 	}
 
@@ -17,16 +17,17 @@
 package com.daon.idxAuthRequestNode;
 
 import static com.daon.idxAuthRequestNode.IdxCommon.IDX_HREF_KEY;
-import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
+import static com.daon.idxAuthRequestNode.IdxCommon.getTenant;
 import static org.forgerock.openam.auth.node.api.Action.goTo;
 
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ResourceBundle;
 
 import javax.inject.Inject;
 
 import org.forgerock.json.JsonValue;
+import org.forgerock.openam.annotations.sm.Attribute;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.NodeProcessException;
@@ -36,9 +37,8 @@ import org.forgerock.util.i18n.PreferredLocales;
 
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
 import com.google.common.collect.ImmutableList;
-import com.identityx.clientSDK.TenantRepoFactory;
+import com.google.inject.assistedinject.Assisted;
 import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
 
 /**
  * A node that checks user authentication status in IdentityX
@@ -47,50 +47,100 @@ import com.identityx.clientSDK.repositories.AuthenticationRequestRepository;
 		"marketplace", "trustnetwork", "multi-factor authentication" })
 public class IdxAuthStatusNode implements Node {
 
-	private String loggerPrefix = "[IdentityX Auth Request Decision Node][Marketplace] ";
+	private static final String loggerPrefix = "[IdentityX Auth Request Decision Node][Marketplace] ";
 	private static final String BUNDLE = IdxAuthStatusNode.class.getName();
 
-	private static LoggerWrapper logger = new LoggerWrapper();
+	/** Longest a request is held, whatever the configured hold timeout, so AM request threads are not tied up. */
+	static final int MAX_HOLD_TIMEOUT_MS = 30_000;
+
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 
 	/**
 	 * Configuration for the node.
 	 */
 	public interface Config {
+
+		/**
+		 * Read the status from the shared background poller instead of calling IdentityX on every visit
+		 * 
+		 * @return true if the shared poller should be used
+		 */
+		@Attribute(order = 100)
+		default boolean sharedPolling() {
+			return false;
+		}
+
+		/**
+		 * Milliseconds to hold a pending request waiting for its status to change before returning, 0 to return
+		 * straight away. Values above {@value IdxAuthStatusNode#MAX_HOLD_TIMEOUT_MS} are capped to it
+		 * 
+		 * @return the hold timeout
+		 */
+		@Attribute(order = 200)
+		default int holdTimeout() {
+			return 0;
+		}
 	}
 
+	private final Config config;
+
 	/**
 	 * Create the node.
 	 */
 	@Inject
-	public IdxAuthStatusNode() {
+	public IdxAuthStatusNode(@Assisted Config config) {
+		this.config = config;
 	}
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		try {
 
 			String username = context.getStateFor(this).get("IdxKeyUserName").asString();
 			if (username == null) {
 				String errorMessage = "Error: IdxKeyUserName not found in sharedState! Make sure "
 						+ "IdxCheckEnrollmentStatus node is in the tree!";
-				logger.error(loggerPrefix + errorMessage);
+				logger.error(errorMessage);
 				throw new NodeProcessException(errorMessage);
 			}
 
-			TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context, this);
+			IdxTenant tenant = getTenant(context, this);
 
 			// call API to check status. Return true, false or pending
 			// get the authHref value from sharedState
 			String authHref = context.getStateFor(this).get(IDX_HREF_KEY).asString();
 
 			if (authHref == null) {
-				logger.error(loggerPrefix + "Error: href not found in SharedState!");
+				logger.error("Error: href not found in SharedState!");
 				throw new NodeProcessException("Unable to authenticate - HREF not found!");
 			}
 
-			String status = getAuthenticationRequestStatus(authHref, tenantRepoFactory, context, this);
+			int holdTimeout = Math.min(config.holdTimeout(), MAX_HOLD_TIMEOUT_MS);
+			// Holding relies on the poller to notice the change
+			boolean usePoller = config.sharedPolling() || holdTimeout > 0;
+			String status = usePoller ? IdxAuthStatusPoller.getStatus(tenant, authHref) : null;
+			if (status == null) {
+				status = getAuthenticationRequestStatus(authHref, tenant, context, this);
+				if (usePoller) {
+					IdxAuthStatusPoller.track(tenant, authHref, status, IdxCommon.getRequestHeaderSource(context, this));
+				}
+			}
+
+			if (holdTimeout > 0 && status.equalsIgnoreCase(IdxAuthStatusPoller.STATUS_PENDING)) {
+				String changed = IdxAuthStatusPoller.awaitChange(tenant, authHref, status, holdTimeout);
+				if (changed != null) {
+					logger.debug("Status changed to [{}] while holding", changed);
+					status = changed;
+				}
+			}
 
-			logger.debug(loggerPrefix + "Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(authHref));
+			if (logger.isDebugEnabled()) {
+				logger.debug("Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(authHref));
+			}
 
 			if (status.equalsIgnoreCase("COMPLETED_SUCCESSFUL")) {
 				return goTo(IdxAuthStatusOutcome.SUCCESS_OUTCOME.name()).build();
@@ -102,31 +152,29 @@ public class IdxAuthStatusNode implements Node {
 				return goTo(IdxAuthStatusOutcome.FAILED_OUTCOME.name()).build();
 			}
 		} catch (Exception ex) {
-			logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-			ex.printStackTrace();
-			context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+			IdxErrorReporter.report(context, this, logger, ex);
 			return Action.goTo(IdxAuthStatusOutcome.ERROR_OUTCOME.name()).build();
 
 		}
 	}
 
-	private String getAuthenticationRequestStatus(String authRequestHref, TenantRepoFactory tenantRepoFactory, TreeContext context, Node theNode)
+	private String getAuthenticationRequestStatus(String authRequestHref, IdxTenant tenant, TreeContext context, Node theNode)
 			throws Exception {
 
-		AuthenticationRequestRepository authenticationRequestRepo = tenantRepoFactory.getAuthenticationRequestRepo();
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, theNode);
 
 		AuthenticationRequest request;
 		
 		
 		try {
-			request = authenticationRequestRepo.get(authRequestHref, IdxCommon.getAccessToken(context, theNode));
+			request = tenant.execute(IdxTenant.OP_AUTH_REQUEST_GET,
+					f -> f.getAuthenticationRequestRepo().get(authRequestHref, requestHeaders));
 		} catch (IdxRestException e) {
-			logger.debug(loggerPrefix
-					+ "An exception occurred while attempting to determine the status of the authentication "
-					+ "request.  Exception: " + e.getMessage());
+			logger.debug("An exception occurred while attempting to determine the status of the authentication "
+					+ "request.  Exception: {}", e.getMessage());
 			throw new NodeProcessException(e);
 		}
-		logger.debug(loggerPrefix + "Retrieving an AuthenticationRequest with an HREF of " + authRequestHref);
+		logger.debug("Retrieving an AuthenticationRequest with an HREF of {}", authRequestHref);
 		return request.getStatus().toString();
 	}
 
@@ -0,0 +1,276 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+
+/**
+ * Per-JVM poller for pending IdentityX authentication requests.
+ *
+ * IdxAuthStatusNode registers the requests it sees as pending and the poller keeps their latest status in
+ * memory. Refreshes are driven by demand: a read that finds the status older than the interval is served
+ * the cached status and starts a background refresh, so a request nobody asks about costs no IdentityX
+ * calls. A status older than twice the interval is not served and the node calls IdentityX itself.
+ * Refreshes run on a small, fixed pool of threads, at most one per request at a time. Requests that
+ * finished, or that no node has asked about for a while, are dropped.
+ *
+ * A node can also hold a request until the status of a tracked request changes, see
+ * {@link #awaitChange(IdxTenant, String, String, long)}. Held requests wait on a future completed by the poller. While a
+ * request is held it is refreshed once per interval, since there are no reads to drive it. The number of
+ * requests held at the same time is capped because each one keeps an AM request thread busy. The settings
+ * are JVM wide and read from system properties:
+ * <ul>
+ * <li>{@code com.daon.idx.statusPoller.intervalMs} (default 2000)</li>
+ * <li>{@code com.daon.idx.statusPoller.threads} (default 8)</li>
+ * <li>{@code com.daon.idx.statusPoller.max} tracked requests (default 10000)</li>
+ * <li>{@code com.daon.idx.statusPoller.idleMs} (default 10000)</li>
+ * <li>{@code com.daon.idx.statusPoller.maxHolders} (default 200)</li>
+ * </ul>
+ */
+final class IdxAuthStatusPoller {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	static final String STATUS_PENDING = "PENDING";
+
+	private static final long INTERVAL_MS = Long.getLong("com.daon.idx.statusPoller.intervalMs", 2_000L);
+	private static final int THREADS = Integer.getInteger("com.daon.idx.statusPoller.threads", 8);
+	private static final int MAX_TRACKED = Integer.getInteger("com.daon.idx.statusPoller.max", 10_000);
+	private static final long IDLE_MS = Long.getLong("com.daon.idx.statusPoller.idleMs", 10_000L);
+	private static final int MAX_HOLDERS = Integer.getInteger("com.daon.idx.statusPoller.maxHolders", 200);
+
+	/** A status older than this is not served; the node calls IdentityX instead. */
+	private static final long MAX_STATUS_AGE_MS = 2 * INTERVAL_MS;
+
+	private static final ConcurrentHashMap<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+	private static final Semaphore holders = new Semaphore(MAX_HOLDERS);
+
+	static final String HITS_TOTAL = "idx_status_poller_hits_total";
+	static final String MISSES_TOTAL = "idx_status_poller_misses_total";
+	static final String REFRESHES_TOTAL = "idx_status_poller_refreshes_total";
+	static final String REFRESH_ERRORS_TOTAL = "idx_status_poller_refresh_errors_total";
+	static final String HOLDS_TOTAL = "idx_status_poller_holds_total";
+	static final String HOLDS_REJECTED_TOTAL = "idx_status_poller_holds_rejected_total";
+	static final String HOLDS_CHANGED_TOTAL = "idx_status_poller_holds_changed_total";
+
+	private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "idx-status-poller");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final ExecutorService refresher = newRefresher();
+
+	static {
+		ticker.scheduleWithFixedDelay(IdxAuthStatusPoller::tick, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+		IdxMetrics.registerGauge("idx_status_poller_tracked", IdxAuthStatusPoller::size);
+		IdxMetrics.registerGauge("idx_status_poller_held", IdxAuthStatusPoller::getHeldCount);
+		IdxMetrics.describe(HITS_TOTAL, "counter", "Statuses served from the poller");
+		IdxMetrics.describe(MISSES_TOTAL, "counter", "Statuses the nodes fetched themselves");
+		IdxMetrics.describe(REFRESHES_TOTAL, "counter", "Background status refreshes");
+		IdxMetrics.describe(REFRESH_ERRORS_TOTAL, "counter", "Background status refreshes that failed");
+		IdxMetrics.describe(HOLDS_TOTAL, "counter", "Requests held until the status changed");
+		IdxMetrics.describe(HOLDS_REJECTED_TOTAL, "counter", "Requests not held because too many were held");
+		IdxMetrics.describe(HOLDS_CHANGED_TOTAL, "counter", "Held requests whose status changed before the timeout");
+	}
+
+	private IdxAuthStatusPoller() {
+	}
+
+	/**
+	 * Returns the latest polled status of the request, starting a background refresh when it is older than the
+	 * interval.
+	 *
+	 * @return the status, or null when the request is not tracked or its status is out of date
+	 */
+	static String getStatus(IdxTenant tenant, String authHref) {
+		Tracked entry = tracked.get(authHref);
+		if (entry == null) {
+			IdxMetrics.increment(MISSES_TOTAL, "tenant", tenant.getBaseURL());
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		entry.lastReadAt = now;
+		long age = now - entry.updatedAt;
+		if (age >= MAX_STATUS_AGE_MS) {
+			// The caller fetches the status itself and tracks the result
+			IdxMetrics.increment(MISSES_TOTAL, "tenant", tenant.getBaseURL());
+			return null;
+		}
+		if (age >= INTERVAL_MS) {
+			scheduleRefresh(entry);
+		}
+		IdxMetrics.increment(HITS_TOTAL, "tenant", tenant.getBaseURL());
+		return entry.status;
+	}
+
+	/**
+	 * Records a status the node fetched itself. Pending requests are tracked from then on, as long as the
+	 * poller is not full.
+	 *
+	 * @param requestHeaderSource supplies request headers to the background refreshes
+	 */
+	static void track(IdxTenant tenant, String authHref, String status, Callable<HashMap<String, String>> requestHeaderSource) {
+		Tracked entry = tracked.get(authHref);
+		if (entry == null) {
+			if (!STATUS_PENDING.equalsIgnoreCase(status) || tracked.size() >= MAX_TRACKED) {
+				return;
+			}
+			entry = tracked.computeIfAbsent(authHref, href -> new Tracked(tenant.getBaseURL(), href, requestHeaderSource));
+		}
+		entry.update(status);
+		entry.lastReadAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Waits for the status of a tracked request to differ from the status the caller last saw.
+	 *
+	 * @return the new status, or null when the request is not tracked, the wait timed out or the maximum
+	 *         number of held requests is reached
+	 */
+	static String awaitChange(IdxTenant tenant, String authHref, String seenStatus, long timeoutMillis)
+			throws InterruptedException {
+		Tracked entry = tracked.get(authHref);
+		if (entry == null || timeoutMillis <= 0) {
+			return null;
+		}
+		// Read the future before the status, a change in between then completes this future
+		CompletableFuture<String> change = entry.changed.get();
+		String current = entry.status;
+		if (current != null && !current.equalsIgnoreCase(seenStatus)) {
+			return current;
+		}
+		if (!holders.tryAcquire()) {
+			IdxMetrics.increment(HOLDS_REJECTED_TOTAL, "tenant", tenant.getBaseURL());
+			return null;
+		}
+		IdxMetrics.increment(HOLDS_TOTAL, "tenant", tenant.getBaseURL());
+		entry.holding.incrementAndGet();
+		try {
+			if (System.currentTimeMillis() - entry.updatedAt >= INTERVAL_MS) {
+				scheduleRefresh(entry);
+			}
+			String status = change.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			entry.lastReadAt = System.currentTimeMillis();
+			IdxMetrics.increment(HOLDS_CHANGED_TOTAL, "tenant", tenant.getBaseURL());
+			return status;
+		} catch (TimeoutException ex) {
+			return null;
+		} catch (ExecutionException ex) {
+			return null;
+		} finally {
+			entry.holding.decrementAndGet();
+			holders.release();
+		}
+	}
+
+	static int getHeldCount() {
+		return MAX_HOLDERS - holders.availablePermits();
+	}
+
+	static int size() {
+		return tracked.size();
+	}
+
+	/**
+	 * Drops idle and finished requests and refreshes the held ones that are due.
+	 */
+	private static void tick() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Tracked> item : tracked.entrySet()) {
+			Tracked entry = item.getValue();
+			boolean held = entry.holding.get() > 0;
+			boolean finished = !STATUS_PENDING.equalsIgnoreCase(entry.status);
+			if ((!held && now - entry.lastReadAt >= IDLE_MS) || (finished && now - entry.updatedAt >= MAX_STATUS_AGE_MS)) {
+				tracked.remove(item.getKey(), entry);
+			} else if (held && now - entry.updatedAt >= INTERVAL_MS) {
+				scheduleRefresh(entry);
+			}
+		}
+	}
+
+	private static void scheduleRefresh(Tracked entry) {
+		if (STATUS_PENDING.equalsIgnoreCase(entry.status) && entry.refreshing.compareAndSet(false, true)) {
+			refresher.execute(() -> refresh(entry));
+		}
+	}
+
+	private static void refresh(Tracked entry) {
+		try {
+			IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(entry.baseURL);
+			HashMap<String, String> requestHeaders = entry.requestHeaderSource.call();
+			AuthenticationRequest request = tenant.execute(IdxTenant.OP_AUTH_REQUEST_GET,
+					f -> f.getAuthenticationRequestRepo().get(entry.authHref, requestHeaders));
+			entry.update(request.getStatus().toString());
+			IdxMetrics.increment(REFRESHES_TOTAL, "tenant", entry.baseURL);
+		} catch (Exception ex) {
+			// The status goes out of date and nodes fall back to their own call
+			IdxMetrics.increment(REFRESH_ERRORS_TOTAL, "tenant", entry.baseURL);
+			logger.debug("Refreshing the status of [{}] failed: {}", entry.authHref, ex.toString());
+		} finally {
+			entry.refreshing.set(false);
+		}
+	}
+
+	private static ExecutorService newRefresher() {
+		AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "idx-status-poller-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static final class Tracked {
+		private final String baseURL;
+		private final String authHref;
+		private final Callable<HashMap<String, String>> requestHeaderSource;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		private final AtomicInteger holding = new AtomicInteger();
+		private volatile String status;
+		private volatile long updatedAt;
+		private volatile long lastReadAt;
+		private final AtomicReference<CompletableFuture<String>> changed = new AtomicReference<>(new CompletableFuture<>());
+
+		Tracked(String baseURL, String authHref, Callable<HashMap<String, String>> requestHeaderSource) {
+			this.baseURL = baseURL;
+			this.authHref = authHref;
+			this.requestHeaderSource = requestHeaderSource;
+		}
+
+		/**
+		 * Called by the refresher and by nodes that fetched the status themselves, possibly at the same time.
+		 */
+		void update(String newStatus) {
+			CompletableFuture<String> previous = null;
+			synchronized (this) {
+				String oldStatus = status;
+				status = newStatus;
+				updatedAt = System.currentTimeMillis();
+				if (oldStatus != null && !oldStatus.equalsIgnoreCase(newStatus)) {
+					// Later holders wait for the next change
+					previous = changed.getAndSet(new CompletableFuture<>());
+				}
+			}
+			// Wake up the holders outside the lock, they may run dependent work on this thread
+			if (previous != null) {
+				previous.complete(newStatus);
+			}
+		}
+	}
+}
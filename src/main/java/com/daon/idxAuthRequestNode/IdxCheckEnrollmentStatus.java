@@ -18,7 +18,6 @@ package com.daon.idxAuthRequestNode;
 
 import static com.daon.idxAuthRequestNode.IdxCommon.findUser;
 
-import java.util.Date;
 import java.util.List;
 import java.util.ResourceBundle;
 
@@ -39,7 +38,6 @@ import org.forgerock.util.i18n.PreferredLocales;
 import com.daon.identityx.rest.model.pojo.User;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
-import com.identityx.clientSDK.TenantRepoFactory;
 import com.sun.identity.sm.RequiredValueValidator;
 
 /**
@@ -56,7 +54,7 @@ import com.sun.identity.sm.RequiredValueValidator;
 @Node.Metadata(outcomeProvider = IdxCheckEnrollmentStatus.IdxCheckEnrollmentStatusOutcomeProvider.class, configClass = IdxCheckEnrollmentStatus.Config.class, tags = { "marketplace", "trustnetwork", "multi-factor authentication" })
 public class IdxCheckEnrollmentStatus implements Node {
 
-    private String loggerPrefix = "[IdentityX Check Enrollment Status Node][Marketplace] ";
+    private static final String loggerPrefix = "[IdentityX Check Enrollment Status Node][Marketplace] ";
 	
 	/**
 	 * Configuration for the node.
@@ -96,10 +94,187 @@ public class IdxCheckEnrollmentStatus implements Node {
 		@Attribute(order = 400)
 		String userIdAttribute();
 
+		/**
+		 * Where the access token presented to IdentityX comes from
+		 * 
+		 * @return the token provider mode
+		 */
+		@Attribute(order = 500)
+		default TokenProviderMode tokenProviderMode() {
+			return TokenProviderMode.LOOPBACK;
+		}
+
+		/**
+		 * PKCS#8 PEM RSA private key used to sign the token when tokenProviderMode is LOCAL_JWT
+		 * 
+		 * @return the signing key
+		 */
+		@Attribute(order = 600)
+		@Password
+		String jwtSigningKey();
+
+		/**
+		 * Key ID placed in the JWT header so IdentityX can pick the verification key
+		 * 
+		 * @return the key ID
+		 */
+		@Attribute(order = 700)
+		String jwtKeyId();
+
+		/**
+		 * Issuer claim of the locally signed token, defaults to the client ID
+		 * 
+		 * @return the issuer
+		 */
+		@Attribute(order = 800)
+		String jwtIssuer();
+
+		/**
+		 * Audience claim of the locally signed token
+		 * 
+		 * @return the audience
+		 */
+		@Attribute(order = 900)
+		String jwtAudience();
+
+		/**
+		 * Lifetime in seconds of the locally signed token
+		 * 
+		 * @return the lifetime in seconds
+		 */
+		@Attribute(order = 1000)
+		default int jwtLifetime() {
+			return 300;
+		}
+
+		/**
+		 * Connection timeout in milliseconds for IdentityX calls, also the longest a call waits for a pooled connection
+		 * 
+		 * @return the connection timeout
+		 */
+		@Attribute(order = 1100)
+		default int connectionTimeout() {
+			return 50000;
+		}
+
+		/**
+		 * Maximum number of pooled connections to IdentityX
+		 * 
+		 * @return the maximum total connections
+		 */
+		@Attribute(order = 1200)
+		default int maxConnTotal() {
+			return 50;
+		}
+
+		/**
+		 * Maximum number of pooled connections to IdentityX per route
+		 * 
+		 * @return the maximum connections per route
+		 */
+		@Attribute(order = 1300)
+		default int maxConnPerRoute() {
+			return 20;
+		}
+
+		/**
+		 * Socket read timeout in milliseconds for IdentityX calls, 0 keeps the SDK's own
+		 * 
+		 * @return the socket timeout
+		 */
+		@Attribute(order = 1310)
+		default int socketTimeout() {
+			return 0;
+		}
+
+		/**
+		 * Milliseconds a pooled connection to IdentityX may stay idle before it is closed
+		 * 
+		 * @return the idle connection timeout
+		 */
+		@Attribute(order = 1320)
+		default int idleConnectionTimeout() {
+			return 60000;
+		}
+
+		/**
+		 * Milliseconds of inactivity after which a pooled connection is validated before it is reused
+		 * 
+		 * @return the validate after inactivity period
+		 */
+		@Attribute(order = 1330)
+		default int validateAfterInactivity() {
+			return 2000;
+		}
+
+		/**
+		 * Start the policy and application lookups of the next node once the user is found
+		 * 
+		 * @return true if the lookups should be prefetched
+		 */
+		@Attribute(order = 1400)
+		default boolean prefetchLookups() {
+			return false;
+		}
+
+		/**
+		 * Keep an index of enrolled users so unknown usernames are answered without calling IdentityX
+		 * 
+		 * @return true if the enrolled user index should be used
+		 */
+		@Attribute(order = 1700)
+		default boolean enrolledUserIndex() {
+			return false;
+		}
+
+		/**
+		 * Number of enrolled users the index is sized for
+		 * 
+		 * @return the expected number of enrolled users
+		 */
+		@Attribute(order = 1800)
+		default int enrolledUserIndexSize() {
+			return 100000;
+		}
+
+		/**
+		 * Send usernames the enrolled user index has never seen to User Not Enrolled without confirming them
+		 * 
+		 * @return true if the index's misses are trusted
+		 */
+		@Attribute(order = 1850)
+		default boolean enrolledUserIndexTrusted() {
+			return false;
+		}
+
+		/**
+		 * Store only the user's href, id and userId in shared state instead of the full IdentityX user
+		 * 
+		 * @return true if the compact user reference should be stored
+		 */
+		@Attribute(order = 1900)
+		default boolean compactUserState() {
+			return false;
+		}
+
+	}
+
+	/**
+	 * Where the access token presented to IdentityX comes from.
+	 */
+	public enum TokenProviderMode {
+		/**
+		 * client_credentials grant against AM's own OAuth2 token endpoint over HTTP.
+		 */
+		LOOPBACK,
+		/**
+		 * RS256 JWT signed inside the JVM with a locally held key, falling back to LOOPBACK.
+		 */
+		LOCAL_JWT
 	}
 
 	private final Config config;
-	private static LoggerWrapper logger = new LoggerWrapper();
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 	private static final String BUNDLE = IdxCheckEnrollmentStatus.class.getName();
 
 
@@ -110,8 +285,12 @@ public class IdxCheckEnrollmentStatus implements Node {
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		try {
-			logger.debug(loggerPrefix + "Entering IdxCheckEnrollmentStatus process method");
+			logger.debug("Entering IdxCheckEnrollmentStatus process method");
 
 			String userIdAttribute;
 			// Check for the userIdAttribute in sharedState
@@ -125,7 +304,7 @@ public class IdxCheckEnrollmentStatus implements Node {
 			JsonValue usernameJson = context.getStateFor(this).get(userIdAttribute);
 
 			if (usernameJson==null || usernameJson.isNull() || StringUtils.isBlank(usernameJson.asString())) {
-				logger.error(loggerPrefix + "Here is the userIdAttribute used to looking in sharedState: " + userIdAttribute);
+				logger.error("Here is the userIdAttribute used to looking in sharedState: {}", userIdAttribute);
 				throw new NodeProcessException("Username attribute " + userIdAttribute + " is either null or empty");
 			}
 
@@ -135,9 +314,11 @@ public class IdxCheckEnrollmentStatus implements Node {
 			String theClientSecret = config.clientSecret();
 			String theBaseURL = config.baseURL();
 
-			logger.debug(loggerPrefix + "IdxCheckEnrollmentStatus::Configuration - gathered ClientID ClientSecret and BaseURL");
+			logger.debug("IdxCheckEnrollmentStatus::Configuration - gathered ClientID ClientSecret and BaseURL");
 
-			TenantRepoFactory tenantRepoFactory = IdxTenantRepoFactorySingleton.getInstance(theBaseURL).tenantRepoFactory;
+			IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(theBaseURL,
+					new IdxTenant.PoolSettings(config.connectionTimeout(), config.maxConnTotal(), config.maxConnPerRoute(),
+							config.socketTimeout(), config.idleConnectionTimeout(), config.validateAfterInactivity()));
 
 			// Set all config params in SharedState
 			NodeState newState = context.getStateFor(this);
@@ -146,29 +327,71 @@ public class IdxCheckEnrollmentStatus implements Node {
 			newState.putShared("IdxClientSecret", theClientSecret);
 			newState.putShared("IdxBaseURL", theBaseURL);
 			newState.putShared("IdxKeyUserName", username);
+			newState.putShared(IdxCommon.IDX_TOKEN_PROVIDER_KEY, config.tokenProviderMode().name());
+
+			if (config.tokenProviderMode() == TokenProviderMode.LOCAL_JWT) {
+				try {
+					IdxLocalTokenSigner.register(theClientID, config.jwtSigningKey(), config.jwtKeyId(),
+							config.jwtIssuer(), config.jwtAudience(), config.jwtLifetime());
+				} catch (Exception ex) {
+					// Tokens will come from the AM token endpoint instead
+					logger.warn("Cannot use local token signing: {}", ex.toString());
+				}
+			}
+
+			IdxEnrolledUserIndex index = null;
+			if (config.enrolledUserIndex()) {
+				IdxEnrolledUserIndex candidate = IdxEnrolledUserIndex.forTenant(tenant, config.enrolledUserIndexSize(),
+						IdxCommon.getRequestHeaderSource(context, this));
+				if (candidate.isDefinitelyNotEnrolled(username)) {
+					if (config.enrolledUserIndexTrusted()) {
+						logger.debug("UserID=[{}] is not in the enrolled user index", username);
+						return Action.goTo(IdxCheckEnrollmentStatusOutcome.FALSE_OUTCOME.name()).build();
+					}
+					// Confirmed below, the user may have been enrolled since the index was built
+					index = candidate;
+				}
+			}
 
-			User user = findUser(username, tenantRepoFactory, context, theClientID, theClientSecret, theBaseURL);
+			User user = findUser(username, tenant, context, this, theClientID, theClientSecret, theBaseURL);
 			
 			if (user == null) {
-				logger.error(loggerPrefix + "FATAL: UserID=[{}] not found in IdentityX", username);
+				logger.debug("UserID=[{}] not found in IdentityX", username);
 				return Action.goTo(IdxCheckEnrollmentStatusOutcome.FALSE_OUTCOME.name()).build();
 			}
+			if (index != null) {
+				index.recordWrongMiss(username);
+			}
+
+			if (config.prefetchLookups()) {
+				try {
+					IdxLookupExecutor.prefetch(tenant, IdxCommon.getAccessToken(context, this));
+				} catch (Exception ex) {
+					// The next node does its own lookups
+					logger.warn("Cannot prefetch lookups: {}", ex.toString());
+				}
+			}
 
-			logger.debug(loggerPrefix + "Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(user.getHref()));
-			logger.debug(loggerPrefix + "User found with ID {}", username);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Connected to the IdentityX Server @ [{}]", IdxCommon.getServerName(user.getHref()));
+			}
+			logger.debug("User found with ID {}", username);
 
 			newState.putShared(IdxCommon.IDX_USER_HREF_KEY, user.getHref());
 			newState.putShared(IdxCommon.IDX_USER_INTERNAL_ID_KEY, user.getId());
 			newState.putShared(IdxCommon.IDX_USER_ID_KEY, user.getUserId());
-			newState.putShared(IdxCommon.IDX_USER_KEY, IdxCommon.objectMapper.writeValueAsString(user));
+			if (config.compactUserState()) {
+				// Downstream nodes rebuild the user from the keys above
+				newState.remove(IdxCommon.IDX_USER_KEY);
+			} else {
+				newState.putShared(IdxCommon.IDX_USER_KEY, IdxJson.writeUser(user));
+			}
 
-			logger.debug(loggerPrefix + "Added to SharedState - User Id=[{}] UserId=[{}] Href=[{}]", user.getId(), user.getUserId(), user.getHref());
-			logger.debug(loggerPrefix + "Exiting IdxCheckEnrollmentStatus process method");
+			logger.debug("Added to SharedState - User Id=[{}] UserId=[{}] Href=[{}]", user.getId(), user.getUserId(), user.getHref());
+			logger.debug("Exiting IdxCheckEnrollmentStatus process method");
 			return Action.goTo(IdxCheckEnrollmentStatusOutcome.TRUE_OUTCOME.name()).build();
 		} catch (Exception ex) {
-            logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-            ex.printStackTrace();
-            context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+            IdxErrorReporter.report(context, this, logger, ex);
             return Action.goTo(IdxCheckEnrollmentStatusOutcome.ERROR_OUTCOME.name()).build();
 
 		}
@@ -1,27 +1,26 @@
 package com.daon.idxAuthRequestNode;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.forgerock.http.util.Json;
 import org.forgerock.openam.auth.node.api.NodeProcessException;
 import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.utils.StringUtils;
 
 import com.daon.identityx.rest.model.def.UserStatusEnum;
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
 import com.daon.identityx.rest.model.pojo.User;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.identityx.auth.client.HttpClientRequestExecutor;
 import com.identityx.clientSDK.TenantRepoFactory;
@@ -45,13 +44,18 @@ class IdxCommon {
 	static final String IDX_USER_INTERNAL_ID_KEY = "idx-user-internal-id-shared-state-key";
 	static final String IDX_USER_ID_KEY = "idx-user-id-shared-state-key";
 	static final String IDX_AUTH_RESPONSE_KEY = "idx-fido-auth-response-shared-state-key";
+	static final String IDX_ACCESS_TOKEN_KEY = "idx-access-token-transient-state-key";
+	static final String IDX_ACCESS_TOKEN_EXPIRY_KEY = "idx-access-token-expiry-transient-state-key";
+	static final String IDX_TOKEN_PROVIDER_KEY = "IdxTokenProviderMode";
 
 	static final String IDX_AUTH_RESPONSE_PROPERTY_NAME = "fidoAuthenticationResponse";
 	static final String IDX_AUTH_REQUEST_TYPE = "FI";
+	static final String IDX_TOKEN_SCOPE = "fr:idm:*";
 
-	static final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+	// A carried-over token is dropped this long before it stops being usable
+	private static final long IDX_TOKEN_CARRY_OVER_MARGIN_MS = 5_000L;
 
-	static User findUser(String userId, TenantRepoFactory tenantRepoFactory, TreeContext context, String theClientID, String theClientSecret, String idxBaseURL) throws Exception {
+	static User findUser(String userId, IdxTenant tenant, TreeContext context, Node theNode, String theClientID, String theClientSecret, String idxBaseURL) throws Exception {
 
 		if (theClientID == null) {
 			logger.error("Error: ClientID not in shared state!");
@@ -68,19 +72,32 @@ class IdxCommon {
 			throw new NodeProcessException("idxBaseURL not in shared state!");
 		}
 		
+		IdxUserCache.Entry cached = IdxUserCache.get(tenant, userId);
+		if (cached != null && cached.isFresh()) {
+			return cached.getUser();
+		}
 
-		String identityCloudURL = context.request.serverUrl + "/oauth2/alpha/access_token";
-		logger.error("Here is the identityCloudURL: " + identityCloudURL);
-		
-		
-		String accessToken = getAccessToken(theClientID, theClientSecret, identityCloudURL);
+		User user;
+		try {
+			user = listUser(userId, tenant, context, theNode);
+		} catch (Exception ex) {
+			IdxUserCache.Entry stale = IdxUserCache.getStale(cached);
+			if (stale == null) {
+				throw ex;
+			}
+			logger.warn("User lookup failed, using the cached result for [{}]: {}", userId, ex.toString());
+			return stale.getUser();
+		}
 
-		Map<String, String> requestHeaders = new HashMap<>();
+		IdxUserCache.put(tenant, userId, user);
+		return user;
+	}
+
+	private static User listUser(String userId, IdxTenant tenant, TreeContext context, Node theNode) throws Exception {
 
 		// Pass the JWT generated into the header name defined in the IdentityX Admin
 		// Console
-
-		requestHeaders.put("Authorization", accessToken);
+		Map<String, String> requestHeaders = getAccessToken(context, theNode);
 
 		// Sample Test of a basic Active User Retrieval
 
@@ -88,12 +105,11 @@ class IdxCommon {
 
 		uqh.getSearchSpec().setStatus(UserStatusEnum.ACTIVE);
 
-		UserRepository userRepo = tenantRepoFactory.getUserRepo();
 		UserQueryHolder holder = new UserQueryHolder();
 		holder.getSearchSpec().setUserId(userId);
 		holder.getSearchSpec().setStatus(UserStatusEnum.ACTIVE);
 		UserCollection userCollection;
-		userCollection = userRepo.list(holder, (HashMap<String, String>) requestHeaders);
+		userCollection = tenant.execute(IdxTenant.OP_USER_LIST, f -> f.getUserRepo().list(holder, (HashMap<String, String>) requestHeaders));
 
 		if (userCollection == null) {
 			return null;
@@ -113,8 +129,93 @@ class IdxCommon {
 		}
 	}
 
-	static TenantRepoFactory getTenantRepoFactory(TreeContext context, Node theNode) throws Exception {
-		TenantRepoFactory tenantRepoFactory;
+	/**
+	 * Returns the user found by IdxCheckEnrollmentStatus. This is the full user when it was stored, otherwise
+	 * a reference holding only the href, id and userId, which is all IdentityX needs to identify the user.
+	 *
+	 * @return the user, or null when no user is in shared state
+	 */
+	static User getUser(NodeState state) throws Exception {
+		if (state.isDefined(IDX_USER_KEY)) {
+			return IdxJson.readUser(state.get(IDX_USER_KEY).asString());
+		}
+		if (!state.isDefined(IDX_USER_ID_KEY)) {
+			return null;
+		}
+		User user = new User();
+		user.setUserId(state.get(IDX_USER_ID_KEY).asString());
+		if (state.isDefined(IDX_USER_HREF_KEY)) {
+			user.setHref(state.get(IDX_USER_HREF_KEY).asString());
+		}
+		if (state.isDefined(IDX_USER_INTERNAL_ID_KEY)) {
+			user.setId(state.get(IDX_USER_INTERNAL_ID_KEY).asString());
+		}
+		return user;
+	}
+
+	/**
+	 * Pulls the FIDO authentication response out of the value the mobile app submitted. The app wraps it in a
+	 * JSON object under {@value #IDX_AUTH_RESPONSE_PROPERTY_NAME}; anything else is taken to be the raw response.
+	 *
+	 * The value is scanned with a streaming parser that stops at the property, so no object tree is built, and
+	 * values that are not JSON objects are recognised from their first character without parsing.
+	 *
+	 * @return the wrapped response when there is a non-empty one, otherwise the value as given
+	 */
+	static String extractAuthResponse(String submitted) {
+		if (submitted == null) {
+			return null;
+		}
+		int start = 0;
+		while (start < submitted.length() && Character.isWhitespace(submitted.charAt(start))) {
+			start++;
+		}
+		if (start == submitted.length() || submitted.charAt(start) != '{') {
+			return submitted;
+		}
+
+		try (JsonParser parser = objectMapper.getFactory().createParser(submitted)) {
+			parser.nextToken();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				boolean wanted = IDX_AUTH_RESPONSE_PROPERTY_NAME.equals(parser.getCurrentName());
+				JsonToken value = parser.nextToken();
+				if (wanted) {
+					String response = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+					return StringUtils.isEmpty(response) ? submitted : response;
+				}
+				parser.skipChildren();
+			}
+		} catch (IOException ex) {
+			logger.warn("Submitted authentication response is not valid JSON: {}", ex.getMessage());
+		}
+		return submitted;
+	}
+
+	/**
+	 * Builds an authentication request that only identifies an existing request by its href and id, for
+	 * updates that do not need the rest of the request.
+	 *
+	 * @return the reference, or null when the href is blank
+	 */
+	static AuthenticationRequest getAuthRequestReference(String authHref) {
+		if (StringUtils.isBlank(authHref)) {
+			return null;
+		}
+		String href = authHref.trim();
+		while (href.endsWith("/")) {
+			href = href.substring(0, href.length() - 1);
+		}
+		if (href.isEmpty()) {
+			return null;
+		}
+		AuthenticationRequest request = new AuthenticationRequest();
+		request.setHref(href);
+		request.setId(href.substring(href.lastIndexOf('/') + 1));
+		return request;
+	}
+
+	static IdxTenant getTenant(TreeContext context, Node theNode) throws Exception {
+		IdxTenant tenant;
 
 		String theBaseURL = context.getStateFor(theNode).get("IdxBaseURL").asString();
 		
@@ -123,21 +224,21 @@ class IdxCommon {
 			throw new NodeProcessException("The Base URL was not in the shared state!");
 		}
 
-		tenantRepoFactory = IdxTenantRepoFactorySingleton.getInstance(theBaseURL).tenantRepoFactory;
+		tenant = IdxTenantRepoFactoryRegistry.getTenant(theBaseURL);
 
-		if (tenantRepoFactory != null) {
+		if (tenant != null) {
 			logger.debug("Successfully Initialised the TenantRepoFactory");
 		} else {
 			logger.error("Failure to Initialised the TenantRepoFactory");
 			throw new NodeProcessException("Error creating tenantRepoFactory");
 		}
 
-		return tenantRepoFactory;
+		return tenant;
 	}
 
 	static String getServerName(String href) {
 
-		logger.info("Entering getServerName");
+		logger.debug("Entering getServerName");
 
 		String server = null;
 
@@ -163,45 +264,104 @@ class IdxCommon {
 			}
 		}
 
-		logger.info("Exiting getServerName");
+		logger.debug("Exiting getServerName");
 		return server;
 	}
 
 	public static String getAccessToken(String clientID, String clientSecret, String baseURL) throws Exception {
-		String retVal = null;
-		String accessToken = Base64.getEncoder().encodeToString((clientID + ":" + clientSecret).getBytes());
-
-		// form parameters
-		Map<Object, Object> data = new HashMap<>();
-		data.put("grant_type", "client_credentials");
-		data.put("scope", "fr:idm:*");
-
-		HttpRequest request = HttpRequest.newBuilder().POST(buildFormDataFromMap(data)).uri(URI.create(baseURL)).setHeader("Authorization", "Basic " + accessToken).setHeader("Content-Type", "application/x-www-form-urlencoded").build();
-
-		HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-		if (response != null && response.statusCode() == 200 && response.body().contains("access_token")) {
-			LinkedHashMap responseBody = (LinkedHashMap) Json.readJson(response.body());
-			retVal = (String) responseBody.get("access_token");
-		}
-		return retVal;
+		return IdxAccessTokenCache.getAccessToken(clientID, clientSecret, baseURL, IDX_TOKEN_SCOPE);
 	}
 	
+	/**
+	 * Builds the IdentityX request headers for the current journey. The token and its expiry are kept in
+	 * transient state so every later Idx node in the journey reuses it until it is close to expiring.
+	 */
 	public static HashMap<String, String> getAccessToken(TreeContext context, Node thisNode) throws Exception {
 		NodeState newState = context.getStateFor(thisNode);
-		String clientID = newState.get("IdxClientID").asString();
-		String clientSecret = newState.get("IdxClientSecret").asString();
-		String identityCloudURL = context.request.serverUrl + "/oauth2/alpha/access_token";
-		String retVal = getAccessToken(clientID,clientSecret,identityCloudURL);
+
+		String retVal = null;
+		if (newState.isDefined(IDX_ACCESS_TOKEN_KEY) && newState.isDefined(IDX_ACCESS_TOKEN_EXPIRY_KEY)) {
+			Long usableUntil = newState.get(IDX_ACCESS_TOKEN_EXPIRY_KEY).asLong();
+			if (usableUntil != null && System.currentTimeMillis() < usableUntil - IDX_TOKEN_CARRY_OVER_MARGIN_MS) {
+				retVal = newState.get(IDX_ACCESS_TOKEN_KEY).asString();
+			}
+		}
+
+		if (retVal == null) {
+			IdxAccessTokenCache.Token token = resolveToken(context, newState);
+			retVal = token.getValue();
+			if (retVal != null) {
+				newState.putTransient(IDX_ACCESS_TOKEN_KEY, retVal);
+				newState.putTransient(IDX_ACCESS_TOKEN_EXPIRY_KEY, token.getUsableUntil());
+			}
+		}
+
 		HashMap<String, String> requestHeaders = new HashMap<>();
 		requestHeaders.put("Authorization", retVal);
 		
 		return requestHeaders;
 	}
+
+	/**
+	 * Captures what is needed to get request headers outside of the node's thread, for background work that
+	 * has no TreeContext. The returned source always resolves a current token.
+	 */
+	static Callable<HashMap<String, String>> getRequestHeaderSource(TreeContext context, Node thisNode) {
+		NodeState state = context.getStateFor(thisNode);
+		String clientID = state.get("IdxClientID").asString();
+		String clientSecret = state.get("IdxClientSecret").asString();
+		String tokenURL = getTokenURL(context);
+		boolean localJwt = isLocalJwt(state);
+
+		return () -> {
+			HashMap<String, String> requestHeaders = new HashMap<>();
+			requestHeaders.put("Authorization", resolveToken(clientID, clientSecret, tokenURL, localJwt).getValue());
+			return requestHeaders;
+		};
+	}
+
+	private static IdxAccessTokenCache.Token resolveToken(TreeContext context, NodeState state) throws Exception {
+		return resolveToken(state.get("IdxClientID").asString(), state.get("IdxClientSecret").asString(),
+				getTokenURL(context), isLocalJwt(state));
+	}
+
+	/**
+	 * @return AM's own OAuth2 token endpoint
+	 */
+	static String getTokenURL(TreeContext context) {
+		return context.request.serverUrl + "/oauth2/alpha/access_token";
+	}
+
+	private static boolean isLocalJwt(NodeState state) {
+		return state.isDefined(IDX_TOKEN_PROVIDER_KEY)
+				&& IdxCheckEnrollmentStatus.TokenProviderMode.LOCAL_JWT.name().equals(state.get(IDX_TOKEN_PROVIDER_KEY).asString());
+	}
+
+	/**
+	 * Mints the token in-process when local signing is configured for the client, otherwise (or if signing
+	 * fails) requests it from the OAuth2 token endpoint.
+	 */
+	private static IdxAccessTokenCache.Token resolveToken(String clientID, String clientSecret, String identityCloudURL,
+			boolean localJwt) throws Exception {
+		if (localJwt) {
+			IdxLocalTokenSigner signer = IdxLocalTokenSigner.forClient(clientID);
+			if (signer != null) {
+				try {
+					return signer.getToken();
+				} catch (Exception ex) {
+					logger.warn("Local token signing failed, falling back to the AM token endpoint: {}", ex.toString());
+				}
+			} else {
+				logger.debug("No local token signer registered for clientID [{}], using the AM token endpoint", clientID);
+			}
+		}
+
+		return IdxAccessTokenCache.getToken(clientID, clientSecret, identityCloudURL, IDX_TOKEN_SCOPE);
+	}
 	
 	
 
-	private static HttpRequest.BodyPublisher buildFormDataFromMap(Map<Object, Object> data) {
+	static HttpRequest.BodyPublisher buildFormDataFromMap(Map<Object, Object> data) {
 		var builder = new StringBuilder();
 		for (Map.Entry<Object, Object> entry : data.entrySet()) {
 			if (builder.length() > 0) {
@@ -0,0 +1,246 @@
+package com.daon.idxAuthRequestNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.daon.identityx.rest.model.def.UserStatusEnum;
+import com.daon.identityx.rest.model.pojo.User;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.identityx.clientSDK.collections.UserCollection;
+import com.identityx.clientSDK.queryHolders.UserQueryHolder;
+
+/**
+ * Probabilistic index of the active user IDs of one IdentityX tenant.
+ *
+ * The index is a Bloom filter built in the background by paging through the tenant's active users. Users that
+ * complete a sponsorship on this AM instance are added straight away, but users enrolled anywhere else only
+ * appear in the next build, so a filter is trusted for at most the refresh interval: a rebuild starts once it
+ * is half that old, and once it is older than that every login falls through to the real lookup until the
+ * rebuild completes. This bounds how long a newly enrolled user can be reported as not enrolled.
+ *
+ * A user ID the filter has never seen was not enrolled when the filter was built. By default the index is
+ * advisory: IdxCheckEnrollmentStatus still confirms such a miss with the real lookup, and a miss that turns
+ * out to be enrolled is counted as a wrong miss and added to the filter, so the wrong miss rate shows whether
+ * the index can be trusted. When the node trusts the index, a miss goes to User Not Enrolled without calling
+ * IdentityX, and a user enrolled through another AM instance can be reported as not enrolled until the next
+ * build. Any other answer, and any answer while the index is still being built for the first time, falls
+ * through to the real lookup.
+ *
+ * Every build pages through all of the tenant's active users, so a large tenant costs one list call per
+ * page per AM instance and refresh interval. The settings are JVM wide and read from system properties:
+ * <ul>
+ * <li>{@code com.daon.idx.userIndex.fpp} target false positive probability (default 0.01)</li>
+ * <li>{@code com.daon.idx.userIndex.refreshMs} longest a filter is trusted (default 600000)</li>
+ * <li>{@code com.daon.idx.userIndex.pageSize} (default 500)</li>
+ * </ul>
+ */
+final class IdxEnrolledUserIndex {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	private static final double FPP = Double.parseDouble(System.getProperty("com.daon.idx.userIndex.fpp", "0.01"));
+	private static final long REFRESH_MS = Long.getLong("com.daon.idx.userIndex.refreshMs", 10 * 60_000L);
+	private static final int PAGE_SIZE = Integer.getInteger("com.daon.idx.userIndex.pageSize", 500);
+
+	/** A failed build is not retried sooner than this. */
+	private static final long RETRY_MS = 60_000L;
+
+	static final String DEFINITE_MISSES_TOTAL = "idx_user_index_definite_misses_total";
+	static final String WRONG_MISSES_TOTAL = "idx_user_index_wrong_misses_total";
+
+	private static final ConcurrentHashMap<String, IdxEnrolledUserIndex> indexes = new ConcurrentHashMap<>();
+
+	static {
+		IdxMetrics.describe(DEFINITE_MISSES_TOTAL, "counter", "User IDs the enrolled user index has never seen");
+		IdxMetrics.describe(WRONG_MISSES_TOTAL, "counter", "User IDs the enrolled user index had never seen that were found");
+	}
+
+	private static final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "idx-user-index-builder");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String baseURL;
+	private final AtomicBoolean building = new AtomicBoolean();
+
+	private volatile int expectedUsers;
+	private volatile Callable<HashMap<String, String>> requestHeaderSource;
+	private volatile BloomFilter<CharSequence> filter;
+	private volatile BloomFilter<CharSequence> pending;
+	private volatile long builtAt;
+	private volatile long buildMillis;
+	private volatile long memoryBytes;
+	private volatile long lastAttemptAt;
+
+	private IdxEnrolledUserIndex(String baseURL) {
+		this.baseURL = baseURL;
+	}
+
+	/**
+	 * Returns the index for the tenant, starting a build when there is none yet or it is half way through its
+	 * refresh interval, so the next filter is usually ready before this one stops being trusted.
+	 *
+	 * @param requestHeaderSource supplies request headers to the background build
+	 */
+	static IdxEnrolledUserIndex forTenant(IdxTenant tenant, int expectedUsers,
+			Callable<HashMap<String, String>> requestHeaderSource) {
+		IdxEnrolledUserIndex index = indexes.computeIfAbsent(tenant.getBaseURL(), IdxEnrolledUserIndex::new);
+		index.expectedUsers = Math.max(1, expectedUsers);
+		index.requestHeaderSource = requestHeaderSource;
+		long now = System.currentTimeMillis();
+		if (now - index.builtAt >= REFRESH_MS / 2 && now - index.lastAttemptAt >= RETRY_MS) {
+			index.scheduleBuild();
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a newly enrolled user to the tenant's index, if the tenant has one.
+	 */
+	static void recordEnrolled(IdxTenant tenant, String userId) {
+		IdxEnrolledUserIndex index = indexes.get(tenant.getBaseURL());
+		if (index != null && userId != null) {
+			index.add(userId);
+		}
+	}
+
+	/**
+	 * @return true only when the index is built, younger than the refresh interval and has never seen the user
+	 *         ID
+	 */
+	boolean isDefinitelyNotEnrolled(String userId) {
+		BloomFilter<CharSequence> current = filter;
+		if (current == null || System.currentTimeMillis() - builtAt >= REFRESH_MS) {
+			return false;
+		}
+		if (current.mightContain(userId)) {
+			return false;
+		}
+		IdxMetrics.increment(DEFINITE_MISSES_TOTAL, "tenant", baseURL);
+		return true;
+	}
+
+	/**
+	 * Records that a user ID the index reported as not enrolled was found, and adds it to the index.
+	 */
+	void recordWrongMiss(String userId) {
+		IdxMetrics.increment(WRONG_MISSES_TOTAL, "tenant", baseURL);
+		add(userId);
+	}
+
+	void add(String userId) {
+		BloomFilter<CharSequence> current = filter;
+		if (current != null) {
+			current.put(userId);
+		}
+		// Also goes into a build in progress, which may already have read past this user
+		BloomFilter<CharSequence> next = pending;
+		if (next != null) {
+			next.put(userId);
+		}
+	}
+
+	boolean isReady() {
+		return filter != null;
+	}
+
+	long getBuiltAt() {
+		return builtAt;
+	}
+
+	long getBuildMillis() {
+		return buildMillis;
+	}
+
+	long getApproximateUserCount() {
+		BloomFilter<CharSequence> current = filter;
+		return current == null ? 0 : current.approximateElementCount();
+	}
+
+	/**
+	 * @return the current probability that a user ID that is not enrolled is reported as possibly enrolled
+	 */
+	double getFalsePositiveProbability() {
+		BloomFilter<CharSequence> current = filter;
+		return current == null ? 0 : current.expectedFpp();
+	}
+
+	/**
+	 * @return the approximate size of the filter's bit array, in bytes
+	 */
+	long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	private void scheduleBuild() {
+		if (building.compareAndSet(false, true)) {
+			lastAttemptAt = System.currentTimeMillis();
+			builder.execute(() -> {
+				try {
+					build();
+				} catch (Exception ex) {
+					// The old filter, if any, stays in use until it is older than the refresh interval
+					logger.warn("Building the enrolled user index for [{}] failed: {}", baseURL, ex.toString());
+				} finally {
+					pending = null;
+					building.set(false);
+				}
+			});
+		}
+	}
+
+	private void build() throws Exception {
+		long start = System.currentTimeMillis();
+		// Leave room to grow when the tenant already has more users than configured
+		int expected = expectedUsersFor(Math.max(expectedUsers, (int) Math.min(Integer.MAX_VALUE, getApproximateUserCount())));
+		BloomFilter<CharSequence> next = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expected, FPP);
+		pending = next;
+
+		IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(baseURL);
+		int offset = 0;
+		int count;
+		do {
+			HashMap<String, String> requestHeaders = requestHeaderSource.call();
+			UserQueryHolder holder = new UserQueryHolder();
+			holder.getSearchSpec().setStatus(UserStatusEnum.ACTIVE);
+			holder.getPageSpec().setLimit(PAGE_SIZE);
+			holder.getPageSpec().setOffset(offset);
+			UserCollection page = tenant.execute(IdxTenant.OP_USER_LIST, f -> f.getUserRepo().list(holder, requestHeaders));
+
+			User[] users = page == null || page.getItems() == null ? new User[0] : page.getItems();
+			for (User user : users) {
+				if (user.getUserId() != null) {
+					next.put(user.getUserId());
+				}
+			}
+			count = users.length;
+			offset += count;
+		} while (count == PAGE_SIZE);
+
+		filter = next;
+		memoryBytes = optimalBits(expected, FPP) / 8;
+		builtAt = System.currentTimeMillis();
+		buildMillis = builtAt - start;
+		// Registered again after each build, in case the tenant's gauges were dropped when it was evicted
+		IdxMetrics.registerGauge("idx_user_index_users", this::getApproximateUserCount, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_user_index_fpp", this::getFalsePositiveProbability, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_user_index_memory_bytes", this::getMemoryBytes, "tenant", baseURL);
+		logger.debug("Built the enrolled user index for [{}]: {} users in {}ms, fpp {}", baseURL,
+				next.approximateElementCount(), buildMillis, next.expectedFpp());
+	}
+
+	private static int expectedUsersFor(long users) {
+		return (int) Math.min(Integer.MAX_VALUE, users + users / 5);
+	}
+
+	private static long optimalBits(long expected, double fpp) {
+		return (long) (-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+	}
+}
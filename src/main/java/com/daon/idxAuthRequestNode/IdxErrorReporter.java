@@ -0,0 +1,104 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.auth.node.api.TreeContext;
+
+/**
+ * Reports the exceptions caught by the nodes.
+ *
+ * Each error gets a short correlation id. The id and a compact error code, the simple class name of the root
+ * cause, are written to shared state, so a later node or the journey's failure handling can refer to them.
+ * Errors are counted per node and error code. Every error is logged on one line with its id, code and
+ * exception, but only the stack trace is rate limited: for at most one error of each node and error code per
+ * interval, the line is logged at error level with the stack trace and the number of errors logged without
+ * one since; the others are logged at warning level. This way an IdentityX outage does not turn into a flood
+ * of stack traces, yet every id can be found in the log. The interval is JVM wide and read from the
+ * {@code com.daon.idx.errors.stackTraceIntervalMs} system property (default 60000).
+ */
+final class IdxErrorReporter {
+
+	static final String IDX_ERROR_CODE_KEY = "IdxErrorCode";
+	static final String IDX_ERROR_ID_KEY = "IdxErrorId";
+
+	static final String ERRORS_TOTAL = "idx_node_errors_total";
+
+	private static final long STACK_TRACE_INTERVAL_MS = Long.getLong("com.daon.idx.errors.stackTraceIntervalMs", 60_000L);
+
+	private static final ConcurrentHashMap<String, ErrorType> types = new ConcurrentHashMap<>();
+
+	static {
+		IdxMetrics.describe(ERRORS_TOTAL, "counter", "Exceptions caught by the nodes, by node, tenant and error code");
+	}
+
+	private IdxErrorReporter() {
+	}
+
+	/**
+	 * Logs and counts the error and records its code and correlation id in the node's shared state.
+	 *
+	 * @return the correlation id
+	 */
+	static String report(TreeContext context, Node node, LoggerWrapper logger, Exception ex) {
+		String nodeName = node.getClass().getSimpleName();
+		String code = getErrorCode(ex);
+		String id = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffffffL);
+
+		IdxMetrics.increment(ERRORS_TOTAL, "node", nodeName, "tenant", IdxMetrics.getTenantLabel(node, context), "code",
+				code);
+		ErrorType type = types.computeIfAbsent(nodeName + "|" + code, key -> new ErrorType());
+		long skipped = type.tryLogStackTrace();
+		if (skipped >= 0) {
+			logger.error("Error {} [{}]: {}, {} similar errors without a stack trace since the last one", id, code,
+					ex.toString(), skipped, ex);
+		} else {
+			logger.warn("Error {} [{}]: {}", id, code, ex.toString());
+		}
+
+		try {
+			context.getStateFor(node).putShared(IDX_ERROR_CODE_KEY, code);
+			context.getStateFor(node).putShared(IDX_ERROR_ID_KEY, id);
+		} catch (RuntimeException stateEx) {
+			logger.debug("Cannot record error {} in shared state: {}", id, stateEx.toString());
+		}
+		return id;
+	}
+
+	/**
+	 * @return the simple class name of the innermost cause, so wrapping exceptions such as
+	 *         NodeProcessException do not hide what went wrong
+	 */
+	static String getErrorCode(Throwable ex) {
+		Throwable cause = ex;
+		while (cause.getCause() != null && cause.getCause() != cause) {
+			cause = cause.getCause();
+		}
+		return cause.getClass().getSimpleName();
+	}
+
+	/**
+	 * The stack trace budget of one node and error code.
+	 */
+	private static final class ErrorType {
+		private final AtomicLong lastStackTraceAt = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicLong skipped = new AtomicLong();
+
+		/**
+		 * @return the number of errors logged without a stack trace since the last one when this error may log one,
+		 *         otherwise -1
+		 */
+		long tryLogStackTrace() {
+			long now = System.currentTimeMillis();
+			long last = lastStackTraceAt.get();
+			if ((last == Long.MIN_VALUE || now - last >= STACK_TRACE_INTERVAL_MS)
+					&& lastStackTraceAt.compareAndSet(last, now)) {
+				return skipped.getAndSet(0);
+			}
+			skipped.incrementAndGet();
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.daon.idxAuthRequestNode;
+
+import com.daon.identityx.rest.model.pojo.User;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Preconfigured, thread-safe readers and writers for the IdentityX model objects the nodes keep in shared
+ * state.
+ *
+ * Reading ignores properties the model does not know, so state written by a newer SDK still loads, and
+ * writing skips null fields to keep the stored JSON small. Binding for the model types is resolved once
+ * when this class loads instead of on every call. When a Jackson bytecode-generation module (Blackbird or
+ * Afterburner) is on the classpath it is registered to speed up binding further; this can be turned off with
+ * the {@code com.daon.idx.json.bytecodeModule} system property.
+ */
+final class IdxJson {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	private static final String[] BYTECODE_MODULES = {
+			"com.fasterxml.jackson.module.blackbird.BlackbirdModule",
+			"com.fasterxml.jackson.module.afterburner.AfterburnerModule" };
+
+	private static final ObjectMapper mapper = newMapper();
+
+	static final ObjectReader USER_READER = mapper.readerFor(User.class);
+	static final ObjectWriter USER_WRITER = mapper.writerFor(User.class);
+
+	private IdxJson() {
+	}
+
+	static User readUser(String json) throws Exception {
+		return USER_READER.readValue(json);
+	}
+
+	static String writeUser(User user) throws Exception {
+		return USER_WRITER.writeValueAsString(user);
+	}
+
+	private static ObjectMapper newMapper() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+		objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+		if (Boolean.parseBoolean(System.getProperty("com.daon.idx.json.bytecodeModule", "true"))) {
+			for (String moduleClass : BYTECODE_MODULES) {
+				try {
+					objectMapper.registerModule((Module) Class.forName(moduleClass).getDeclaredConstructor().newInstance());
+					logger.debug("Registered Jackson module {}", moduleClass);
+					break;
+				} catch (ClassNotFoundException ex) {
+					// Not on the classpath, try the next one
+				} catch (Exception | LinkageError ex) {
+					logger.warn("Cannot register Jackson module {}: {}", moduleClass, ex.toString());
+				}
+			}
+		}
+		return objectMapper;
+	}
+}
@@ -0,0 +1,138 @@
+package com.daon.idxAuthRequestNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.utils.StringUtils;
+
+/**
+ * Mints the IdentityX-facing access token inside the JVM by signing an RS256 JWT with a locally held key,
+ * instead of calling back into AM's own OAuth2 token endpoint over HTTP.
+ *
+ * Signers are registered per client ID by {@link IdxCheckEnrollmentStatus}. Nodes running on a server where no
+ * signer is registered fall back to the loopback token endpoint.
+ */
+final class IdxLocalTokenSigner {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	private static final ConcurrentHashMap<String, IdxLocalTokenSigner> signers = new ConcurrentHashMap<>();
+
+	private static final Base64.Encoder base64Url = Base64.getUrlEncoder().withoutPadding();
+
+	private final String fingerprint;
+	private final PrivateKey signingKey;
+	private final String encodedHeader;
+	private final String clientID;
+	private final String issuer;
+	private final String audience;
+	private final long lifetimeMillis;
+
+	private volatile IdxAccessTokenCache.Token current;
+
+	private IdxLocalTokenSigner(String fingerprint, String clientID, String pemKey, String keyId, String issuer,
+			String audience, int lifetimeSeconds) throws Exception {
+		this.fingerprint = fingerprint;
+		this.clientID = clientID;
+		this.signingKey = parsePrivateKey(pemKey);
+		this.issuer = StringUtils.isBlank(issuer) ? clientID : issuer;
+		this.audience = audience;
+		this.lifetimeMillis = lifetimeSeconds * 1000L;
+
+		Map<String, Object> header = new LinkedHashMap<>();
+		header.put("alg", "RS256");
+		header.put("typ", "JWT");
+		if (StringUtils.isNotBlank(keyId)) {
+			header.put("kid", keyId);
+		}
+		this.encodedHeader = base64Url.encodeToString(IdxCommon.objectMapper.writeValueAsBytes(header));
+	}
+
+	/**
+	 * Registers (or replaces) the signer for a client ID. The key is only parsed again when the configuration
+	 * has changed since the last registration.
+	 */
+	static void register(String clientID, String pemKey, String keyId, String issuer, String audience,
+			int lifetimeSeconds) throws Exception {
+		if (StringUtils.isBlank(pemKey)) {
+			throw new NodeProcessException("Local token signing selected but no signing key is configured");
+		}
+		if (lifetimeSeconds <= 0) {
+			throw new NodeProcessException("Local token lifetime must be greater than zero");
+		}
+		String fingerprint = Integer.toHexString(Objects.hash(pemKey, keyId, issuer, audience, lifetimeSeconds));
+		IdxLocalTokenSigner existing = signers.get(clientID);
+		if (existing == null || !existing.fingerprint.equals(fingerprint)) {
+			signers.put(clientID, new IdxLocalTokenSigner(fingerprint, clientID, pemKey, keyId, issuer, audience,
+					lifetimeSeconds));
+			logger.debug("Registered local token signer for clientID [{}]", clientID);
+		}
+	}
+
+	/**
+	 * @return the signer registered for the client ID, or null when the loopback endpoint has to be used
+	 */
+	static IdxLocalTokenSigner forClient(String clientID) {
+		return clientID == null ? null : signers.get(clientID);
+	}
+
+	/**
+	 * Returns the current signed token, minting a new one once the previous one is inside its refresh window.
+	 */
+	IdxAccessTokenCache.Token getToken() throws Exception {
+		IdxAccessTokenCache.Token token = current;
+		if (token == null || System.currentTimeMillis() >= token.getRefreshAt()) {
+			synchronized (this) {
+				token = current;
+				if (token == null || System.currentTimeMillis() >= token.getRefreshAt()) {
+					token = mint();
+					current = token;
+				}
+			}
+		}
+		return token;
+	}
+
+	private IdxAccessTokenCache.Token mint() throws Exception {
+		long issuedAt = System.currentTimeMillis();
+
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("iss", issuer);
+		claims.put("sub", clientID);
+		if (StringUtils.isNotBlank(audience)) {
+			claims.put("aud", audience);
+		}
+		claims.put("iat", issuedAt / 1000);
+		claims.put("exp", (issuedAt + lifetimeMillis) / 1000);
+		claims.put("jti", UUID.randomUUID().toString());
+		claims.put("scope", IdxCommon.IDX_TOKEN_SCOPE);
+
+		String signingInput = encodedHeader + "." + base64Url.encodeToString(IdxCommon.objectMapper.writeValueAsBytes(claims));
+
+		Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initSign(signingKey);
+		signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+
+		String jwt = signingInput + "." + base64Url.encodeToString(signature.sign());
+		return new IdxAccessTokenCache.Token(jwt, issuedAt, lifetimeMillis);
+	}
+
+	private static PrivateKey parsePrivateKey(String pemKey) throws Exception {
+		String base64 = pemKey.replaceAll("-----(BEGIN|END) PRIVATE KEY-----", "").replaceAll("\\s", "");
+		try {
+			return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64)));
+		} catch (IllegalArgumentException ex) {
+			throw new NodeProcessException("Local token signing key is not a base64 PKCS#8 RSA private key", ex);
+		}
+	}
+}
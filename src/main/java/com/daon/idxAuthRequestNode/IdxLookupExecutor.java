@@ -0,0 +1,240 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.forgerock.openam.utils.StringUtils;
+
+import com.daon.identityx.rest.model.def.PolicyStatusEnum;
+import com.daon.identityx.rest.model.pojo.Application;
+import com.daon.identityx.rest.model.pojo.Policy;
+import com.identityx.clientSDK.collections.ApplicationCollection;
+import com.identityx.clientSDK.collections.PolicyCollection;
+import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
+import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
+
+/**
+ * Runs independent IdentityX lookups concurrently so their latencies overlap instead of adding up.
+ *
+ * Lookups run on a bounded, JVM wide executor. When it is saturated the lookup runs on the calling thread,
+ * which is no slower than the sequential calls it replaces. Callers wait for each result for at most the
+ * lookup timeout.
+ *
+ * Lookups can also be started ahead of time with {@link #prefetch}, typically by IdxCheckEnrollmentStatus
+ * once it has found the user. The IDs are not configured twice: a prefetch repeats the policy and
+ * application lookups last made against the same tenant, by the Auth Request Initiator or Sponsor User node
+ * that normally follows. A later lookup for the same tenant and ID joins the prefetched one instead of
+ * calling IdentityX again, as long as it was started within the prefetch TTL. The settings are read from
+ * system properties:
+ * <ul>
+ * <li>{@code com.daon.idx.lookup.threads} (default 8)</li>
+ * <li>{@code com.daon.idx.lookup.timeoutMs} (default 10000)</li>
+ * <li>{@code com.daon.idx.lookup.prefetchTtlMs} (default 60000)</li>
+ * </ul>
+ */
+final class IdxLookupExecutor {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	private static final int THREADS = Integer.getInteger("com.daon.idx.lookup.threads", 8);
+	static final long TIMEOUT_MS = Long.getLong("com.daon.idx.lookup.timeoutMs", 10_000L);
+	private static final long PREFETCH_TTL_MS = Long.getLong("com.daon.idx.lookup.prefetchTtlMs", 60_000L);
+	private static final int QUEUE_SIZE = 256;
+
+	private static final ThreadPoolExecutor executor = newExecutor();
+
+	private static final ConcurrentHashMap<String, Prefetched<?>> prefetched = new ConcurrentHashMap<>();
+
+	/** The ID last looked up per tenant and operation, which is what a prefetch looks up next. */
+	private static final ConcurrentHashMap<String, String> lastLookedUp = new ConcurrentHashMap<>();
+
+	static {
+		IdxMetrics.registerGauge("idx_lookup_active_threads", executor::getActiveCount);
+		IdxMetrics.registerGauge("idx_lookup_queued", () -> executor.getQueue().size());
+		IdxMetrics.registerGauge("idx_lookup_prefetched", prefetched::size);
+	}
+
+	private IdxLookupExecutor() {
+	}
+
+	/**
+	 * Starts looking up the active policy with the given policy ID.
+	 *
+	 * @return a future completed with the policy, or null when no active policy has that ID
+	 */
+	static CompletableFuture<Policy> findPolicy(IdxTenant tenant, String policyId, HashMap<String, String> requestHeaders) {
+		remember(tenant, IdxTenant.OP_POLICY_LIST, policyId);
+		CompletableFuture<Policy> lookup = takePrefetched(prefetchKey(tenant, IdxTenant.OP_POLICY_LIST, policyId));
+		return lookup != null ? lookup : lookupPolicy(tenant, policyId, requestHeaders);
+	}
+
+	/**
+	 * Starts looking up the application with the given application ID.
+	 *
+	 * @return a future completed with the application, or null when there is no application with that ID
+	 */
+	static CompletableFuture<Application> findApplication(IdxTenant tenant, String applicationId,
+			HashMap<String, String> requestHeaders) {
+		remember(tenant, IdxTenant.OP_APPLICATION_LIST, applicationId);
+		CompletableFuture<Application> lookup = takePrefetched(prefetchKey(tenant, IdxTenant.OP_APPLICATION_LIST, applicationId));
+		return lookup != null ? lookup : lookupApplication(tenant, applicationId, requestHeaders);
+	}
+
+	/**
+	 * Starts the policy and application lookups last made against the tenant in the background, so that the
+	 * next node finds them already running or done. Nothing is prefetched until a node has made them once.
+	 */
+	static void prefetch(IdxTenant tenant, HashMap<String, String> requestHeaders) {
+		String policyId = lastLookedUp.get(tenant.getBaseURL() + "|" + IdxTenant.OP_POLICY_LIST);
+		String applicationId = lastLookedUp.get(tenant.getBaseURL() + "|" + IdxTenant.OP_APPLICATION_LIST);
+		if (StringUtils.isNotBlank(policyId)) {
+			putPrefetched(prefetchKey(tenant, IdxTenant.OP_POLICY_LIST, policyId), () -> lookupPolicy(tenant, policyId, requestHeaders));
+		}
+		if (StringUtils.isNotBlank(applicationId)) {
+			putPrefetched(prefetchKey(tenant, IdxTenant.OP_APPLICATION_LIST, applicationId),
+					() -> lookupApplication(tenant, applicationId, requestHeaders));
+		}
+	}
+
+	private static void remember(IdxTenant tenant, String operation, String id) {
+		if (StringUtils.isNotBlank(id)) {
+			lastLookedUp.put(tenant.getBaseURL() + "|" + operation, id);
+		}
+	}
+
+	private static CompletableFuture<Policy> lookupPolicy(IdxTenant tenant, String policyId, HashMap<String, String> requestHeaders) {
+		return submit(IdxTenant.OP_POLICY_LIST, tenant, () -> {
+			PolicyQueryHolder holder = new PolicyQueryHolder();
+			holder.getSearchSpec().setPolicyId(policyId);
+			holder.getSearchSpec().setStatus(PolicyStatusEnum.ACTIVE);
+			PolicyCollection policyCollection = tenant.execute(IdxTenant.OP_POLICY_LIST,
+					f -> f.getPolicyRepo().list(holder, requestHeaders));
+			return first(policyCollection == null ? null : policyCollection.getItems());
+		});
+	}
+
+	private static CompletableFuture<Application> lookupApplication(IdxTenant tenant, String applicationId,
+			HashMap<String, String> requestHeaders) {
+		return submit(IdxTenant.OP_APPLICATION_LIST, tenant, () -> {
+			ApplicationQueryHolder holder = new ApplicationQueryHolder();
+			holder.getSearchSpec().setApplicationId(applicationId);
+			ApplicationCollection applicationCollection = tenant.execute(IdxTenant.OP_APPLICATION_LIST,
+					f -> f.getApplicationRepo().list(holder, requestHeaders));
+			return first(applicationCollection == null ? null : applicationCollection.getItems());
+		});
+	}
+
+	private static <T> T first(T[] items) {
+		return items == null || items.length == 0 ? null : items[0];
+	}
+
+	/**
+	 * Waits for a lookup started by this class. The lookup may be a prefetched one that other journeys wait
+	 * for too, so on timeout it is not cancelled but dropped from the prefetched lookups, and the next journey
+	 * starts its own.
+	 *
+	 * @throws NodeProcessException if the lookup failed, was cancelled or did not finish within the lookup
+	 *                              timeout
+	 */
+	static <T> T await(CompletableFuture<T> lookup, String operation) throws NodeProcessException {
+		try {
+			return lookup.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			prefetched.values().removeIf(entry -> entry.lookup == lookup);
+			throw new NodeProcessException("Timed out after " + TIMEOUT_MS + "ms waiting for " + operation);
+		} catch (CancellationException ex) {
+			throw new NodeProcessException("Cancelled waiting for " + operation, ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof NodeProcessException) {
+				throw (NodeProcessException) cause;
+			}
+			throw new NodeProcessException(cause);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new NodeProcessException("Interrupted waiting for " + operation, ex);
+		}
+	}
+
+	private static String prefetchKey(IdxTenant tenant, String operation, String id) {
+		return tenant.getBaseURL() + "|" + operation + "|" + id;
+	}
+
+	/**
+	 * Starts a prefetch unless a fresh one for the same key is already there.
+	 */
+	private static <T> void putPrefetched(String key, Supplier<CompletableFuture<T>> lookup) {
+		long now = System.currentTimeMillis();
+		Prefetched<?> existing = prefetched.get(key);
+		if (existing != null && now - existing.startedAt < PREFETCH_TTL_MS) {
+			return;
+		}
+		Prefetched<T> started = new Prefetched<>(lookup.get(), now);
+		prefetched.put(key, started);
+		// Failed or empty lookups are not kept, the node repeats them and reports the error itself
+		started.lookup.whenComplete((result, ex) -> {
+			if (ex != null || result == null) {
+				prefetched.remove(key, started);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> CompletableFuture<T> takePrefetched(String key) {
+		Prefetched<?> entry = prefetched.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.startedAt >= PREFETCH_TTL_MS) {
+			prefetched.remove(key, entry);
+			return null;
+		}
+		logger.debug("Using prefetched lookup [{}]", key);
+		return (CompletableFuture<T>) entry.lookup;
+	}
+
+	private static <T> CompletableFuture<T> submit(String operation, IdxTenant tenant, Callable<T> lookup) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return lookup.call();
+			} catch (Exception ex) {
+				logger.debug("Lookup {} against [{}] failed: {}", operation, tenant.getBaseURL(), ex.toString());
+				throw new CompletionException(ex);
+			}
+		}, executor);
+	}
+
+	private static ThreadPoolExecutor newExecutor() {
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+					Thread thread = new Thread(runnable, "idx-lookup-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static final class Prefetched<T> {
+		private final CompletableFuture<T> lookup;
+		private final long startedAt;
+
+		Prefetched(CompletableFuture<T> lookup, long startedAt) {
+			this.lookup = lookup;
+			this.startedAt = startedAt;
+		}
+	}
+}
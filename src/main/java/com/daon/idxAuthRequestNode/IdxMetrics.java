@@ -0,0 +1,357 @@
+package com.daon.idxAuthRequestNode;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.auth.node.api.TreeContext;
+
+/**
+ * Per-JVM metrics registry for the nodes and the IdentityX calls they make.
+ *
+ * The registry holds latency histograms, counters and gauges, each identified by a metric name and a set
+ * of labels such as the node, the repository operation and the tenant base URL. Histograms and counters are
+ * recorded as the plugin runs; gauges are read from the caches, pools and pollers when the metrics are
+ * scraped. The metrics are rendered in the Prometheus text exposition format and published as the
+ * {@code PrometheusText} attribute of the {@code com.daon.idx:type=Metrics} MBean, so they can be read
+ * through JMX or any JMX exporter. The MBean can be turned off with the {@code com.daon.idx.metrics.jmx}
+ * system property.
+ */
+final class IdxMetrics {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	static final String NODE_PROCESS_SECONDS = "idx_node_process_seconds";
+	static final String NODE_OUTCOME_TOTAL = "idx_node_outcome_total";
+	static final String OPERATION_SECONDS = "idx_operation_seconds";
+	static final String OPERATION_ERRORS_TOTAL = "idx_operation_errors_total";
+	static final String TOKEN_FETCH_SECONDS = "idx_token_fetch_seconds";
+	static final String TOKEN_FETCH_ERRORS_TOTAL = "idx_token_fetch_errors_total";
+
+	static final String OBJECT_NAME = "com.daon.idx:type=Metrics";
+
+	/** Histogram bucket upper bounds, in seconds. */
+	private static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	private static final Map<String, String> help = new ConcurrentHashMap<>();
+	private static final Map<String, String> types = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Series, Histogram> histograms = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Series, LongAdder> counters = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Series, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+	static {
+		describe(NODE_PROCESS_SECONDS, "histogram", "Time spent in a node's process method");
+		describe(NODE_OUTCOME_TOTAL, "counter", "Node results by outcome, or callbacks when the node sent callbacks");
+		describe(OPERATION_SECONDS, "histogram", "Time spent in an IdentityX repository call, including the pool lease");
+		describe(OPERATION_ERRORS_TOTAL, "counter", "IdentityX repository calls that failed");
+		describe(TOKEN_FETCH_SECONDS, "histogram", "Time spent fetching an access token from the token endpoint");
+		describe(TOKEN_FETCH_ERRORS_TOTAL, "counter", "Access token fetches that failed");
+		if (Boolean.parseBoolean(System.getProperty("com.daon.idx.metrics.jmx", "true"))) {
+			registerMBean();
+		}
+	}
+
+	private IdxMetrics() {
+	}
+
+	/**
+	 * Sets the type and help text of a metric, for metrics registered outside this class.
+	 */
+	static void describe(String name, String type, String helpText) {
+		types.put(name, type);
+		help.put(name, helpText);
+	}
+
+	/**
+	 * Records one observation of a latency histogram.
+	 *
+	 * @param labels label names and values, in pairs
+	 */
+	static void recordLatency(String name, long nanos, String... labels) {
+		histograms.computeIfAbsent(new Series(name, labels), series -> new Histogram()).observe(nanos);
+	}
+
+	/**
+	 * @param labels label names and values, in pairs
+	 */
+	static void increment(String name, String... labels) {
+		counters.computeIfAbsent(new Series(name, labels), series -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Registers a value read when the metrics are scraped, replacing any earlier one with the same labels.
+	 *
+	 * @param labels label names and values, in pairs
+	 */
+	static void registerGauge(String name, DoubleSupplier value, String... labels) {
+		gauges.put(new Series(name, labels), value);
+	}
+
+	/**
+	 * Registers a running total kept elsewhere, read when the metrics are scraped.
+	 */
+	static void registerCounter(String name, String helpText, DoubleSupplier value) {
+		describe(name, "counter", helpText);
+		gauges.put(new Series(name, new String[0]), value);
+	}
+
+	/**
+	 * Removes the gauges that carry the given label value, for example those of an evicted tenant.
+	 */
+	static void removeGauges(String labelName, String labelValue) {
+		gauges.keySet().removeIf(series -> labelValue.equals(series.label(labelName)));
+	}
+
+	/**
+	 * Runs a node's process method and records its latency and outcome, tagged with the tenant base URL
+	 * found in shared state afterwards.
+	 */
+	static Action timeNode(Node node, TreeContext context, Function<TreeContext, Action> process) {
+		long start = System.nanoTime();
+		Action action = null;
+		try {
+			action = process.apply(context);
+			return action;
+		} finally {
+			long nanos = System.nanoTime() - start;
+			String nodeName = node.getClass().getSimpleName();
+			String tenant = getTenantLabel(node, context);
+			recordLatency(NODE_PROCESS_SECONDS, nanos, "node", nodeName, "tenant", tenant);
+			String outcome = action == null ? "exception" : action.outcome == null ? "callbacks" : action.outcome;
+			increment(NODE_OUTCOME_TOTAL, "node", nodeName, "tenant", tenant, "outcome", outcome);
+		}
+	}
+
+	/**
+	 * @return the normalized IdentityX base URL the node's journey uses, the tenant label of its metrics
+	 */
+	static String getTenantLabel(Node node, TreeContext context) {
+		try {
+			String baseURL = context.getStateFor(node).get("IdxBaseURL").asString();
+			return baseURL == null ? "" : IdxTenantRepoFactoryRegistry.normalize(baseURL);
+		} catch (RuntimeException ex) {
+			return "";
+		}
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format
+	 */
+	static String scrape() {
+		Map<String, StringBuilder> families = new TreeMap<>();
+		histograms.forEach((series, histogram) -> histogram.write(series, family(families, series.name)));
+		counters.forEach((series, counter) -> writeSample(family(families, series.name), series.name, series, null,
+				counter.sum()));
+		gauges.forEach((series, value) -> {
+			double sample;
+			try {
+				sample = value.getAsDouble();
+			} catch (RuntimeException ex) {
+				return;
+			}
+			writeSample(family(families, series.name), series.name, series, null, sample);
+		});
+
+		StringBuilder text = new StringBuilder();
+		families.forEach((name, samples) -> {
+			String helpText = help.get(name);
+			if (helpText != null) {
+				text.append("# HELP ").append(name).append(' ').append(helpText).append('\n');
+			}
+			text.append("# TYPE ").append(name).append(' ').append(types.getOrDefault(name, "gauge")).append('\n');
+			text.append(samples);
+		});
+		return text.toString();
+	}
+
+	private static StringBuilder family(Map<String, StringBuilder> families, String name) {
+		return families.computeIfAbsent(name, n -> new StringBuilder());
+	}
+
+	private static void writeSample(StringBuilder out, String name, Series series, String le, double value) {
+		out.append(name);
+		if (series.labels.length > 0 || le != null) {
+			out.append('{');
+			for (int i = 0; i + 1 < series.labels.length; i += 2) {
+				if (i > 0) {
+					out.append(',');
+				}
+				out.append(series.labels[i]).append("=\"").append(escape(series.labels[i + 1])).append('"');
+			}
+			if (le != null) {
+				out.append(series.labels.length > 0 ? "," : "").append("le=\"").append(le).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			out.append((long) value);
+		} else {
+			out.append(value);
+		}
+		out.append('\n');
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			// A redeployed plugin replaces the MBean of the previous class loader
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new MetricsMBean(), name);
+		} catch (Exception ex) {
+			logger.warn("Cannot register the {} MBean: {}", OBJECT_NAME, ex.toString());
+		}
+	}
+
+	/**
+	 * A metric name with its label names and values. The labels keep the order they were given in.
+	 */
+	private static final class Series {
+		private final String name;
+		private final String[] labels;
+
+		Series(String name, String[] labels) {
+			this.name = name;
+			this.labels = labels;
+		}
+
+		String label(String labelName) {
+			for (int i = 0; i + 1 < labels.length; i += 2) {
+				if (labels[i].equals(labelName)) {
+					return labels[i + 1];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Series)) {
+				return false;
+			}
+			Series other = (Series) o;
+			return name.equals(other.name) && Arrays.equals(labels, other.labels);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + Arrays.hashCode(labels);
+		}
+	}
+
+	/**
+	 * Bucket counts and a running sum; the sum is kept in nanoseconds so it can be added to without locking.
+	 */
+	private static final class Histogram {
+		private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sumNanos = new LongAdder();
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void observe(long nanos) {
+			double seconds = nanos / 1e9;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (seconds <= BUCKETS[i]) {
+					buckets[i].increment();
+					break;
+				}
+			}
+			count.increment();
+			sumNanos.add(nanos);
+		}
+
+		void write(Series series, StringBuilder out) {
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += buckets[i].sum();
+				writeSample(out, series.name + "_bucket", series, Double.toString(BUCKETS[i]), cumulative);
+			}
+			long total = count.sum();
+			writeSample(out, series.name + "_bucket", series, "+Inf", total);
+			writeSample(out, series.name + "_sum", series, null, sumNanos.sum() / 1e9);
+			writeSample(out, series.name + "_count", series, null, total);
+		}
+	}
+
+	/**
+	 * Publishes the scrape as a read-only JMX attribute.
+	 */
+	private static final class MetricsMBean implements DynamicMBean {
+		private static final String ATTRIBUTE = "PrometheusText";
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			if (!ATTRIBUTE.equals(attribute)) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return scrape();
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				if (ATTRIBUTE.equals(attribute)) {
+					list.add(new Attribute(ATTRIBUTE, scrape()));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(actionName), "No operation " + actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			return new MBeanInfo(IdxMetrics.class.getName(), "IdentityX node metrics",
+					new MBeanAttributeInfo[] { new MBeanAttributeInfo(ATTRIBUTE, String.class.getName(),
+							"All metrics in the Prometheus text exposition format", true, false, false) },
+					null, new MBeanOperationInfo[0], null);
+		}
+	}
+}
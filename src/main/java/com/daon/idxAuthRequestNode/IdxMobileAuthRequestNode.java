@@ -5,7 +5,7 @@ import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
@@ -33,7 +33,6 @@ import com.daon.identityx.rest.model.pojo.Policy;
 import com.daon.identityx.rest.model.pojo.User;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
-import com.identityx.clientSDK.TenantRepoFactory;
 import com.identityx.clientSDK.exceptions.IdxRestException;
 import com.sun.identity.sm.RequiredValueValidator;
 
@@ -43,7 +42,7 @@ import com.sun.identity.sm.RequiredValueValidator;
 @Node.Metadata(outcomeProvider = IdxMobileAuthRequestNode.IdxMobileAuthRequestNodeOutcomeProvider.class, configClass = IdxMobileAuthRequestNode.Config.class, tags = {"marketplace", "trustnetwork", "multi-factor authentication"})
 public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 
-	private String loggerPrefix = "[IdentityX Mobile Auth Request Node][Marketplace] ";
+	private static final String loggerPrefix = "[IdentityX Mobile Auth Request Node][Marketplace] ";
 	private static final String BUNDLE = IdxMobileAuthRequestNode.class.getName();
 	
 	/**
@@ -79,7 +78,7 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 	}
 
 	private final Config config;
-	private static LoggerWrapper logger = new LoggerWrapper();
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 	
 
 	/**
@@ -92,6 +91,10 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		try {
 			Optional<TextOutputCallback> textOutputCallbackOptional = context.getCallback(TextOutputCallback.class);
 			Optional<TextInputCallback> textInputCallbackOptional = context.getCallback(TextInputCallback.class);
@@ -99,10 +102,10 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 			NodeState sharedState = context.getStateFor(this);
 			
 			String authHref = sharedState.get(IdxCommon.IDX_HREF_KEY).asString();
-			logger.debug(loggerPrefix + "AuthenticationRequestHref={}", authHref);
+			logger.debug("AuthenticationRequestHref={}", authHref);
 			
 			if (context.hasCallbacks() && textOutputCallbackOptional.isPresent() && textInputCallbackOptional.isPresent()) {	
-				logger.debug(loggerPrefix + "==> Going to Next State ==>");
+				logger.debug("==> Going to Next State ==>");
 				sharedState.putShared(IdxCommon.IDX_AUTH_RESPONSE_KEY, textInputCallbackOptional.get().getText());
 				return Action.goTo(IdxMobileAuthRequestNodeOutcome.NEXT_OUTCOME.name()).build();
 			}
@@ -110,7 +113,7 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 			String userId = context.getStateFor(this).get(IdxCommon.IDX_USER_ID_KEY).asString();
 			
 			if (TextUtils.isBlank(userId)) {
-				throw new NodeProcessException(loggerPrefix + "UserId cannot be blank");
+				throw new NodeProcessException("UserId cannot be blank");
 			}
 			
 			AuthenticationRequest finalRequest = null;
@@ -132,7 +135,7 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 					field("fidoAuthenticationRequest", finalRequest.getFidoAuthenticationRequest())));
 			
 			if (!(TextUtils.isEmpty(adosAuthResponse))) {
-				logger.debug(loggerPrefix + "ADoS Tree Operation Adding fidoAuthenticationResponse to callback json");
+				logger.debug("ADoS Tree Operation Adding fidoAuthenticationResponse to callback json");
 				json.put("fidoAuthenticationResponse", adosAuthResponse);			
 				json.put("fidoResponseCode", finalRequest.getFidoResponseCode());
 				json.put("fidoResponseMsg", finalRequest.getFidoResponseMsg());
@@ -146,9 +149,7 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 			return Action.send(callbacks).build();
 		}
 		catch (Exception ex) {
-            logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-            ex.printStackTrace();
-            context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+            IdxErrorReporter.report(context, this, logger, ex);
             return Action.goTo(IdxMobileAuthRequestNodeOutcome.ERROR_OUTCOME.name()).build();
 
 		}
@@ -156,7 +157,7 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 	
 	private AuthenticationRequest createAuthRequest(TreeContext context, String userId) throws Exception {
 		
-		logger.info(loggerPrefix + "Entering createAuthRequest");
+		logger.debug("Entering createAuthRequest");
 		
 		
 		User user = new User();
@@ -178,39 +179,44 @@ public class IdxMobileAuthRequestNode extends AbstractDecisionNode {
 		request.setType(IdxCommon.IDX_AUTH_REQUEST_TYPE);
 		request.setServerData(context.getStateFor(this).get(SharedStateConstants.USERNAME).asString());
 		
-		logger.debug(loggerPrefix + "UserId={} ApplicationId={} Policy={}", request.getUser().getUserId(), request.getApplication().getApplicationId(), request.getPolicy().getPolicyId());
+		logger.debug("UserId={} ApplicationId={} Policy={}", request.getUser().getUserId(), request.getApplication().getApplicationId(), request.getPolicy().getPolicyId());
 		
-		TenantRepoFactory tenantRepoFactory = IdxCommon.getTenantRepoFactory(context, this);
+		IdxTenant tenant = IdxCommon.getTenant(context, this);
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
 		
+		AuthenticationRequest created;
 		try {
-			request = tenantRepoFactory.getAuthenticationRequestRepo().create(request, IdxCommon.getAccessToken(context, this));
+			created = tenant.execute(IdxTenant.OP_AUTH_REQUEST_CREATE,
+					f -> f.getAuthenticationRequestRepo().create(request, requestHeaders));
 		} catch (IdxRestException ex) {
-			logger.error(loggerPrefix + "createAuthRequest exception", ex);
+			logger.debug("createAuthRequest exception", ex);
 			throw new NodeProcessException(ex);
 		}
 		
-		logger.info(loggerPrefix + "Exiting createAuthRequest");
-		return request;
+		logger.debug("Exiting createAuthRequest");
+		return created;
 	}
 	
 	private AuthenticationRequest getAuthRequest(TreeContext context, String authRequestHref) throws Exception {
 		
-		logger.info(loggerPrefix + "Entering getAuthRequest");
+		logger.debug("Entering getAuthRequest");
 		
-		TenantRepoFactory tenantRepoFactory = IdxCommon.getTenantRepoFactory(context, this);
+		IdxTenant tenant = IdxCommon.getTenant(context, this);
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
 		
-		logger.debug(loggerPrefix + "AuthRequestHref={}", authRequestHref);
+		logger.debug("AuthRequestHref={}", authRequestHref);
 		
 		AuthenticationRequest request = null;
 		
 		try {
-			request = tenantRepoFactory.getAuthenticationRequestRepo().get(authRequestHref, IdxCommon.getAccessToken(context, this));
+			request = tenant.execute(IdxTenant.OP_AUTH_REQUEST_GET,
+					f -> f.getAuthenticationRequestRepo().get(authRequestHref, requestHeaders));
 		} catch (IdxRestException ex) {
-			logger.error(loggerPrefix + "getAuthRequest exception", ex);
+			logger.debug("getAuthRequest exception", ex);
 			throw new NodeProcessException(ex);
 		}
 		
-		logger.info(loggerPrefix + "Exiting getAuthRequest");
+		logger.debug("Exiting getAuthRequest");
 		return request;
 	}
 
@@ -1,14 +1,13 @@
 package com.daon.idxAuthRequestNode;
 
-import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
+import static com.daon.idxAuthRequestNode.IdxCommon.getTenant;
 
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ResourceBundle;
 
 import javax.inject.Inject;
 
-import org.apache.http.util.TextUtils;
 import org.forgerock.json.JsonValue;
 import org.forgerock.openam.annotations.sm.Attribute;
 import org.forgerock.openam.auth.node.api.AbstractDecisionNode;
@@ -16,14 +15,11 @@ import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.util.i18n.PreferredLocales;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import com.daon.identityx.rest.model.def.AuthenticationRequestStatusEnum;
 import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
-import com.identityx.clientSDK.TenantRepoFactory;
 import com.identityx.clientSDK.exceptions.IdxRestException;
 import com.sun.identity.sm.RequiredValueValidator;
 
@@ -33,8 +29,8 @@ import com.sun.identity.sm.RequiredValueValidator;
 @Node.Metadata(outcomeProvider = IdxMobileValidateAuthRequestNode.IdxMobileValidateAuthRequestNodeOutcomeProvider.class, configClass = IdxMobileValidateAuthRequestNode.Config.class, tags = {"marketplace", "trustnetwork", "multi-factor authentication"})
 public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 
-	private static LoggerWrapper logger = new LoggerWrapper();
-	private String loggerPrefix = "[IdentityX Mobile Auth Request Validate Node][Marketplace] ";
+	private static final String loggerPrefix = "[IdentityX Mobile Auth Request Validate Node][Marketplace] ";
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 	private static final String BUNDLE = IdxMobileValidateAuthRequestNode.class.getName();
 	
 	public interface Config {
@@ -43,6 +39,11 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 		default AuthenticationRequestStatusEnum expectedStatus() {
 			return AuthenticationRequestStatusEnum.COMPLETED_SUCCESSFUL;
 		}	
+		
+		@Attribute(order = 200)
+		default boolean singleRoundTrip() {
+			return false;
+		}
 	}
 	
 	private final Config nodeConfig;	
@@ -57,34 +58,15 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		try {
-			String test = null;
-			JSONObject obj = null;
-			boolean isJsonOk = false;
+			// Either the wrapper JSON sent by the app or, e.g. from Postman, the raw FIDO response
+			String test = IdxCommon.extractAuthResponse(context.getStateFor(this).get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString());
 	
-			try {
-				obj = new JSONObject(context.getStateFor(this).get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString());
-				logger.debug(loggerPrefix + "Json={}", obj.toString());
-			} catch (JSONException e) {
-				logger.warn(loggerPrefix + "Cannot cast SharedState Key = [{}] to JSON Object = {}", IdxCommon.IDX_AUTH_RESPONSE_KEY, e.getMessage());
-			}
-	
-			if (obj != null) {
-				
-				try {
-					test = obj.getString(IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME);
-					isJsonOk = true;
-				} catch (JSONException e) {
-					logger.warn(loggerPrefix + "Cannot cast JSON Object Property = [{}] to JSON Object = {}", IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME, e.getMessage());
-				}
-			}
-	
-			logger.debug(loggerPrefix + "Test={}", test);
-	
-			if (TextUtils.isEmpty(test) || !isJsonOk) {
-				test = context.getStateFor(this).get(IdxCommon.IDX_AUTH_RESPONSE_KEY).asString();
-				logger.debug(loggerPrefix + "Using-Postman={}", test);
-			}
+			logger.debug("Test={}", test);
 	
 			if (validateAuthResponse(test, context)) {
 				return Action.goTo(IdxMobileValidateAuthRequestNodeOutcome.TRUE_OUTCOME.name()).build();
@@ -92,9 +74,7 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 			return Action.goTo(IdxMobileValidateAuthRequestNodeOutcome.FALSE_OUTCOME.name()).build();
 		}
 		catch (Exception ex) {
-            logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-            ex.printStackTrace();
-            context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+            IdxErrorReporter.report(context, this, logger, ex);
             return Action.goTo(IdxMobileValidateAuthRequestNodeOutcome.ERROR_OUTCOME.name()).build();
 
 		}
@@ -107,34 +87,43 @@ public class IdxMobileValidateAuthRequestNode extends AbstractDecisionNode {
 				
 		try {
 			
-			TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context, this);			
+			IdxTenant tenant = getTenant(context, this);			
+			HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
 			
-			AuthenticationRequest request = tenantRepoFactory.getAuthenticationRequestRepo().get(authHref, IdxCommon.getAccessToken(context, this));
+			AuthenticationRequest pending;
+			if (nodeConfig.singleRoundTrip()) {
+				// The update only needs to know which request it is for, skip fetching it first
+				pending = IdxCommon.getAuthRequestReference(authHref);
+			} else {
+				pending = tenant.execute(IdxTenant.OP_AUTH_REQUEST_GET,
+						f -> f.getAuthenticationRequestRepo().get(authHref, requestHeaders));
+			}
 			
-			if (request == null) {
-				logger.error(loggerPrefix + "AuthRequest Href = {} is invalid", authHref);
+			if (pending == null) {
+				logger.warn("AuthRequest Href = {} is invalid", authHref);
 				return false;
 			}
 			
-			request.setFidoAuthenticationResponse(authResponse);
+			pending.setFidoAuthenticationResponse(authResponse);
 			
-			request = tenantRepoFactory.getAuthenticationRequestRepo().update(request, IdxCommon.getAccessToken(context, this));
+			AuthenticationRequest request = tenant.execute(IdxTenant.OP_AUTH_REQUEST_UPDATE,
+					f -> f.getAuthenticationRequestRepo().update(pending, requestHeaders));
 			
-			logger.debug(loggerPrefix + "Checking Status=[{}]", nodeConfig.expectedStatus());
+			logger.debug("Checking Status=[{}]", nodeConfig.expectedStatus());
 			
 			if (request.getStatus() == nodeConfig.expectedStatus()) {
-				logger.debug(loggerPrefix + "Success Status=[{}]", nodeConfig.expectedStatus());
+				logger.debug("Success Status=[{}]", nodeConfig.expectedStatus());
 				 context.getStateFor(this).putShared(IdxCommon.IDX_HREF_KEY, request.getHref());
 				//Required for 'Daon ADoS SRP Passcode Authenticator' [D409#9302|D409#8302]
 				 context.getStateFor(this).putShared(IdxCommon.IDX_AUTH_RESPONSE_KEY, request.getFidoAuthenticationResponse());
 				return true;
 			}
 			
-			logger.error(loggerPrefix + "AuthRequest Status = {} is invalid", request.getStatus());
+			logger.debug("AuthRequest Status = {} is invalid", request.getStatus());
 			return false;
 			
 		} catch (IdxRestException ex) {
-			logger.error(loggerPrefix + "validateAuthResponse exception", ex);
+			logger.error("validateAuthResponse exception", ex);
 			return false;
 		}
 	}
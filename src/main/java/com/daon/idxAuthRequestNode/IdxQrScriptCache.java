@@ -0,0 +1,80 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.openam.utils.qr.ErrorCorrectionLevel;
+import org.forgerock.openam.utils.qr.GenerationUtils;
+
+/**
+ * Per-JVM cache of the QR code scripts rendered by IdxSponsorUser, keyed by the text in the QR code.
+ *
+ * The node keeps only the sponsorship token in shared state and asks for the script on every poll, so the
+ * script is generated once per sponsorship instead of being carried in the journey state. The cache holds at
+ * most a fixed number of scripts and evicts the least recently used one beyond that; an evicted script is
+ * simply generated again. The size is JVM wide and read from the {@code com.daon.idx.qrCache.max} system
+ * property (default 1000, 0 disables the cache).
+ */
+final class IdxQrScriptCache {
+
+	private static final int MAX_ENTRIES = Integer.getInteger("com.daon.idx.qrCache.max", 1_000);
+
+	private static final AtomicLong hitCount = new AtomicLong();
+	private static final AtomicLong missCount = new AtomicLong();
+
+	private static final Map<String, String> scripts = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	static {
+		IdxMetrics.registerGauge("idx_qr_cache_entries", IdxQrScriptCache::size);
+		IdxMetrics.registerCounter("idx_qr_cache_hits_total", "QR code scripts served from the cache", hitCount::get);
+		IdxMetrics.registerCounter("idx_qr_cache_misses_total", "QR code scripts generated", missCount::get);
+	}
+
+	private IdxQrScriptCache() {
+	}
+
+	/**
+	 * @return the script that renders the text as a QR code in the given callback
+	 */
+	static String getScript(String callbackId, String qrText) {
+		String key = callbackId + "|" + qrText;
+		String script;
+		synchronized (scripts) {
+			script = scripts.get(key);
+		}
+		if (script != null) {
+			hitCount.incrementAndGet();
+			return script;
+		}
+		missCount.incrementAndGet();
+		script = GenerationUtils.getQRCodeGenerationJavascript(callbackId, qrText, 20, ErrorCorrectionLevel.LOW);
+		if (MAX_ENTRIES > 0) {
+			synchronized (scripts) {
+				scripts.put(key, script);
+			}
+		}
+		return script;
+	}
+
+	static long getHitCount() {
+		return hitCount.get();
+	}
+
+	static long getMissCount() {
+		return missCount.get();
+	}
+
+	static int size() {
+		synchronized (scripts) {
+			return scripts.size();
+		}
+	}
+}
@@ -1,15 +1,17 @@
 package com.daon.idxAuthRequestNode;
 
-import static com.daon.idxAuthRequestNode.IdxCommon.getTenantRepoFactory;
+import static com.daon.idxAuthRequestNode.IdxCommon.getTenant;
 import static org.forgerock.openam.auth.node.api.Action.goTo;
 import static org.forgerock.openam.auth.node.api.Action.send;
 
 import java.util.Arrays;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.inject.Inject;
 import javax.security.auth.callback.ConfirmationCallback;
@@ -23,24 +25,15 @@ import org.forgerock.openam.auth.node.api.NodeProcessException;
 import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.authentication.callbacks.PollingWaitCallback;
-import org.forgerock.openam.utils.qr.ErrorCorrectionLevel;
-import org.forgerock.openam.utils.qr.GenerationUtils;
 import org.forgerock.util.i18n.PreferredLocales;
 
-import com.daon.identityx.rest.model.def.PolicyStatusEnum;
+import com.daon.identityx.rest.model.pojo.Application;
+import com.daon.identityx.rest.model.pojo.Policy;
 import com.daon.identityx.rest.model.pojo.Policy.PolicyTypeEnum;
 import com.daon.identityx.rest.model.pojo.Sponsorship;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
-import com.identityx.clientSDK.TenantRepoFactory;
-import com.identityx.clientSDK.collections.ApplicationCollection;
-import com.identityx.clientSDK.collections.PolicyCollection;
 import com.identityx.clientSDK.exceptions.IdxRestException;
-import com.identityx.clientSDK.queryHolders.ApplicationQueryHolder;
-import com.identityx.clientSDK.queryHolders.PolicyQueryHolder;
-import com.identityx.clientSDK.repositories.ApplicationRepository;
-import com.identityx.clientSDK.repositories.PolicyRepository;
-import com.identityx.clientSDK.repositories.SponsorshipRepository;
 import com.sun.identity.authentication.callbacks.ScriptTextOutputCallback;
 import com.sun.identity.sm.RequiredValueValidator;
 
@@ -48,7 +41,7 @@ import com.sun.identity.sm.RequiredValueValidator;
 		"marketplace", "trustnetwork", "multi-factor authentication" })
 public class IdxSponsorUser implements Node {
 
-	private String loggerPrefix = "[IdentityX Sponsor User Node][Marketplace] ";
+	private static final String loggerPrefix = "[IdentityX Sponsor User Node][Marketplace] ";
 
 	/**
 	 * Configuration for the node.
@@ -101,17 +94,86 @@ public class IdxSponsorUser implements Node {
 			return "Scan the QR code with your mobile app.";
 		}
 
+		/**
+		 * Poll quickly while the QR code is likely being scanned and back off afterwards, within the polling
+		 * budget instead of a number of polls
+		 * 
+		 * @return true if adaptive polling should be used
+		 */
+		@Attribute(order = 600)
+		default boolean adaptivePolling() {
+			return false;
+		}
+
+		/**
+		 * The number of seconds to keep polling when adaptive polling is used
+		 * 
+		 * @return the int with number of whole seconds
+		 */
+		@Attribute(order = 700)
+		default int pollingBudget() {
+			return 300;
+		}
+
+		/**
+		 * The number of seconds between polls during the fast polling window, 0 to use the polling wait
+		 * interval
+		 * 
+		 * @return the int with number of whole seconds
+		 */
+		@Attribute(order = 710)
+		default int adaptiveFastInterval() {
+			return 0;
+		}
+
+		/**
+		 * The number of seconds from the start of polling during which the fast polling interval is used
+		 * 
+		 * @return the int with number of whole seconds
+		 */
+		@Attribute(order = 720)
+		default int adaptiveFastWindow() {
+			return 60;
+		}
+
+		/**
+		 * The number of seconds a sponsorship stays valid in IdentityX, 0 if it is not tracked locally. The
+		 * node does not depend on IdentityX returning the expiry with the created sponsorship, so it is
+		 * configured here to match the tenant
+		 * 
+		 * @return the int with number of whole seconds
+		 */
+		@Attribute(order = 800)
+		default int sponsorshipLifetime() {
+			return 0;
+		}
+
+		/**
+		 * Go to the Expired outcome when the sponsorship expires or can no longer complete, instead of the
+		 * Enrollment Timeout outcome. Trees must connect the Expired outcome before enabling this
+		 * 
+		 * @return true if the Expired outcome should be used
+		 */
+		@Attribute(order = 900)
+		default boolean useExpiredOutcome() {
+			return false;
+		}
+
 	}
 
 	private final Config config;
-	private static LoggerWrapper logger = new LoggerWrapper();
+	private static LoggerWrapper logger = new LoggerWrapper(loggerPrefix);
 	private final String IDX_QR_KEY = "idx-qr-key";
+	private final String IDX_SPONSORSHIP_TOKEN = "idx-sponsorship-token";
+	private final String IDX_SPONSORSHIP_POLICY_TYPE = "idx-sponsorship-policy-type";
+	private final String IDX_SPONSORSHIP_GATEWAY_URL = "idx-sponsorship-gateway-url";
 	private final String IDX_POLL_TIMES = "idx-poll-times-remaining";
 	private final String IDX_SPONSORSHIP_HREF = "idx-sponsorship-href";
+	private final String IDX_POLL_STARTED = "idx-poll-started";
+	private final String IDX_POLL_ATTEMPT = "idx-poll-attempt";
+	private final String IDX_SPONSORSHIP_EXPIRES = "idx-sponsorship-expires";
 	private static final String BUNDLE = IdxSponsorUser.class.getName();
 
-	private String sponsorshipHref;
-
 	/**
 	 * Create the node.
 	 * 
@@ -124,10 +186,13 @@ public class IdxSponsorUser implements Node {
 
 	@Override
 	public Action process(TreeContext context) {
+		return IdxMetrics.timeNode(this, context, this::processNode);
+	}
+
+	private Action processNode(TreeContext context) {
 		try {
 			// JsonValue sharedState = context.sharedState;
 			NodeState sharedState = context.getStateFor(this);
-			String qrText;
 
 			// check for callback from the cancel button
 			Optional<ConfirmationCallback> confirmationCallback = context.getCallback(ConfirmationCallback.class);
@@ -136,72 +201,97 @@ public class IdxSponsorUser implements Node {
 				int index = confirmationCallback.get().getSelectedIndex();
 				if (index == 0) {
 					// user clicked cancel button
-					logger.debug(loggerPrefix + "User clicked cancel");
-					sharedState.remove(IDX_POLL_TIMES);
-					sharedState.remove(IDX_SPONSORSHIP_HREF);
-					sharedState.remove(IDX_QR_KEY);
+					logger.debug("User clicked cancel");
+					clearPollingState(sharedState);
 					return goTo(IdxSponsorOutcome.CANCEL.name()).build();
 				} 
 			}
 
-			TenantRepoFactory tenantRepoFactory = getTenantRepoFactory(context, this);
+			IdxTenant tenant = getTenant(context, this);
 
 			String username = sharedState.get("IdxKeyUserName").asString();
 			if (username == null) {
-				String errorMessage = loggerPrefix + "Error: IdxKeyUserName not found in sharedState! Make sure "
+				String errorMessage = "Error: IdxKeyUserName not found in sharedState! Make sure "
 						+ "IdxCheckEnrollmentStatus node is in the tree!";
-				logger.error(loggerPrefix + errorMessage);
+				logger.error(errorMessage);
 				throw new NodeProcessException(errorMessage);
 			}
 
-			if (!sharedState.isDefined(IDX_QR_KEY)) {
+			// Journeys started before the token was kept still carry the rendered QR script
+			if (!sharedState.isDefined(IDX_SPONSORSHIP_TOKEN) && !sharedState.isDefined(IDX_QR_KEY)) {
 
-				logger.debug(loggerPrefix + "Entering into Sponsor User for the first time for user: [{}]", username);
+				logger.debug("Entering into Sponsor User for the first time for user: [{}]", username);
 
 				sharedState.putShared(IDX_POLL_TIMES, config.numberOfTimesToPoll());
+				sharedState.putShared(IDX_POLL_STARTED, System.currentTimeMillis());
+				sharedState.putShared(IDX_POLL_ATTEMPT, 0);
 
-				qrText = getQRText(tenantRepoFactory, username, context);
-
-				sharedState.putShared(IDX_SPONSORSHIP_HREF, sponsorshipHref);
-
-				String qrCallback = GenerationUtils.getQRCodeGenerationJavascript("callback_0", qrText, 20,
-						ErrorCorrectionLevel.LOW);
+				createSponsorship(sharedState, tenant, username, context);
 
-				sharedState.putShared(IDX_QR_KEY, qrCallback);
+				if (config.sponsorshipLifetime() > 0) {
+					sharedState.putShared(IDX_SPONSORSHIP_EXPIRES,
+							System.currentTimeMillis() + config.sponsorshipLifetime() * 1000L);
+				}
 
 				return buildResponse(sharedState);
 
 			}
-			if (isEnrolled(sharedState, tenantRepoFactory, context)) {
-				logger.debug(loggerPrefix + "Enrollment Successful for: [{}]", username);
+			boolean expired = sharedState.isDefined(IDX_SPONSORSHIP_EXPIRES)
+					&& System.currentTimeMillis() >= sharedState.get(IDX_SPONSORSHIP_EXPIRES).asLong();
+
+			String status = getSponsorshipStatus(sharedState, tenant, context);
+			if ("COMPLETED".equals(status)) {
+				logger.debug("Enrollment Successful for: [{}]", username);
 				// If enrollment is successful send user to next node
 				return goTo(IdxSponsorOutcome.TRUE.name()).build();
 			}
+			if (!"PENDING".equals(status) || expired) {
+				// EXPIRED or any other terminal status, polling again would not change it. Past the
+				// sponsorship lifetime this was the last check, the user may have enrolled just before it
+				logger.debug("Sponsorship expired for: [{}]", username);
+				clearPollingState(sharedState);
+				return goTo(getExpiredOutcome().name()).build();
+			}
 
 			// Build the callbacks and decrement from our configured number of poll times
 			return buildResponse(sharedState);
 		} catch (Exception ex) {
-			logger.error(loggerPrefix + "Exception occurred: " + ex.getMessage());
-			ex.printStackTrace();
-			context.getStateFor(this).putShared(loggerPrefix + "Exception", new Date() + ": " + ex.toString());
+			IdxErrorReporter.report(context, this, logger, ex);
 			return Action.goTo(IdxSponsorOutcome.ERROR.name()).build();
 
 		}
 
 	}
 
+	/**
+	 * Trees that have not opted into the Expired outcome have no connection for it, they get the timeout
+	 * outcome as before.
+	 */
+	private IdxSponsorOutcome getExpiredOutcome() {
+		return config.useExpiredOutcome() ? IdxSponsorOutcome.EXPIRED : IdxSponsorOutcome.FALSE;
+	}
+
 	private Action buildResponse(NodeState sharedState) {
-		Integer pollTimesRemaining = sharedState.get(IDX_POLL_TIMES).asInteger();
-		if (pollTimesRemaining == 0) {
-			// If number of times remaining to poll is 0, send user to false
-			sharedState.remove(IDX_POLL_TIMES);
-			sharedState.remove(IDX_SPONSORSHIP_HREF);
-			sharedState.remove(IDX_QR_KEY);
+		long waitMillis;
+		if (config.adaptivePolling() && sharedState.isDefined(IDX_POLL_STARTED)) {
+			waitMillis = nextAdaptiveWait(sharedState);
+		} else {
+			Integer pollTimesRemaining = sharedState.get(IDX_POLL_TIMES).asInteger();
+			waitMillis = pollTimesRemaining == 0 ? 0 : config.pollingWaitInterval() * 1000L;
+			if (waitMillis > 0) {
+				sharedState.putShared(IDX_POLL_TIMES, pollTimesRemaining - 1);
+			}
+		}
+		if (waitMillis <= 0) {
+			// If the polls or the polling budget are used up, send user to false
+			clearPollingState(sharedState);
 			return goTo(IdxSponsorOutcome.FALSE.name()).build();
 		}
-		sharedState.putShared(IDX_POLL_TIMES, pollTimesRemaining - 1);
 
-		ScriptTextOutputCallback qrCodeCallback = new ScriptTextOutputCallback(sharedState.get(IDX_QR_KEY).asString());
+		String qrScript = sharedState.isDefined(IDX_SPONSORSHIP_TOKEN)
+				? IdxQrScriptCache.getScript("callback_0", getQRText(sharedState))
+				: sharedState.get(IDX_QR_KEY).asString();
+		ScriptTextOutputCallback qrCodeCallback = new ScriptTextOutputCallback(qrScript);
 
 		TextOutputCallback textOutputCallback = new TextOutputCallback(TextOutputCallback.INFORMATION,
 				config.messageText());
@@ -212,12 +302,64 @@ public class IdxSponsorUser implements Node {
 		confirmationCallback.setSelectedIndex(1);
 
 		return send(Arrays.asList(textOutputCallback, qrCodeCallback,
-				new PollingWaitCallback(Integer.toString(config.pollingWaitInterval() * 1000),
+				new PollingWaitCallback(Long.toString(waitMillis),
 						"Waiting for Enrollment to Complete..."),
 				confirmationCallback)).build();
 	}
 
-	private String getQRText(TenantRepoFactory tenantRepoFactory, String userId, TreeContext context) throws Exception {
+	private void clearPollingState(NodeState sharedState) {
+		sharedState.remove(IDX_POLL_TIMES);
+		sharedState.remove(IDX_POLL_STARTED);
+		sharedState.remove(IDX_POLL_ATTEMPT);
+		sharedState.remove(IDX_SPONSORSHIP_HREF);
+		sharedState.remove(IDX_SPONSORSHIP_EXPIRES);
+		sharedState.remove(IDX_SPONSORSHIP_TOKEN);
+		sharedState.remove(IDX_SPONSORSHIP_POLICY_TYPE);
+		sharedState.remove(IDX_SPONSORSHIP_GATEWAY_URL);
+		sharedState.remove(IDX_QR_KEY);
+	}
+
+	private long nextAdaptiveWait(NodeState sharedState) {
+		long elapsed = System.currentTimeMillis() - sharedState.get(IDX_POLL_STARTED).asLong();
+		long pollingWait = config.pollingWaitInterval() * 1000L;
+		long fastInterval = config.adaptiveFastInterval() > 0 ? config.adaptiveFastInterval() * 1000L : pollingWait;
+		long fastWindow = config.adaptiveFastWindow() * 1000L;
+		int attempt = sharedState.isDefined(IDX_POLL_ATTEMPT) ? sharedState.get(IDX_POLL_ATTEMPT).asInteger() : 0;
+		if (elapsed >= fastWindow) {
+			sharedState.putShared(IDX_POLL_ATTEMPT, attempt + 1);
+		}
+		return adaptiveWait(elapsed, attempt, config.pollingBudget() * 1000L, fastInterval, fastWindow, pollingWait,
+				ThreadLocalRandom.current().nextDouble());
+	}
+
+	/**
+	 * Works out the next polling wait: the fast interval during the fast window, when the user is most likely
+	 * scanning the QR code, then exponential back off up to the polling wait interval. Each wait is stretched
+	 * by up to 25%, picked by random from [0, 1), so browsers that started together do not stay in step. The
+	 * jitter never shortens a wait, so with the default fast interval no more polls are made than one every
+	 * polling wait interval. Times are in milliseconds and attempt counts the polls after the fast window.
+	 *
+	 * @return the wait in milliseconds, or 0 when the polling budget is used up
+	 */
+	static long adaptiveWait(long elapsed, int attempt, long budget, long fastInterval, long fastWindow,
+			long pollingWait, double random) {
+		long remaining = budget - elapsed;
+		if (remaining <= 0) {
+			return 0;
+		}
+
+		long wait = fastInterval;
+		if (elapsed >= fastWindow) {
+			long maxWait = Math.max(fastInterval, pollingWait);
+			wait = Math.min(maxWait, fastInterval << Math.min(attempt + 1, 16));
+		}
+
+		wait += (long) (wait * random / 4);
+		return Math.max(1, Math.min(wait, remaining));
+	}
+
+	private void createSponsorship(NodeState sharedState, IdxTenant tenant, String userId, TreeContext context)
+			throws Exception {
 
 		String appId = config.applicationId();
 		String policyId = config.enrollmentPolicyName();
@@ -235,106 +377,107 @@ public class IdxSponsorUser implements Node {
 		request.setType(Sponsorship.SponsorshipTypeEnum.USER);
 		request.setRegistrationId(UUID.randomUUID().toString());
 
-		PolicyQueryHolder holder = new PolicyQueryHolder();
-		holder.getSearchSpec().setPolicyId(policyId);
-		holder.getSearchSpec().setStatus(PolicyStatusEnum.ACTIVE);
-		PolicyRepository policyRepo = tenantRepoFactory.getPolicyRepo();
-		PolicyCollection policyCollection;
-		try {
-			policyCollection = policyRepo.list(holder, IdxCommon.getAccessToken(context, this));
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
-		}
-		if (policyCollection.getItems().length > 0) {
-			logger.debug(loggerPrefix + "Setting Policy On Sponsorship Request");
-			request.setPolicy(policyCollection.getItems()[0]);
+		// One token for the policy, application and create calls
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
+
+		// The policy and application lookups are independent, run them side by side
+		CompletableFuture<Policy> policyLookup = IdxLookupExecutor.findPolicy(tenant, policyId, requestHeaders);
+		CompletableFuture<Application> applicationLookup = IdxLookupExecutor.findApplication(tenant, appId, requestHeaders);
 
-			policyType = policyCollection.getItems()[0].getType();
+		Policy policy = IdxLookupExecutor.await(policyLookup, IdxTenant.OP_POLICY_LIST);
+		if (policy != null) {
+			logger.debug("Setting Policy On Sponsorship Request");
+			request.setPolicy(policy);
+
+			policyType = policy.getType();
 		} else {
-			logger.error(loggerPrefix + "Could not find an active policy with the PolicyId: "
-					+ config.enrollmentPolicyName());
-			throw new NodeProcessException(loggerPrefix + "Could not find an active policy with the PolicyId: "
+			logger.debug("Could not find an active policy with the PolicyId: {}", config.enrollmentPolicyName());
+			throw new NodeProcessException("Could not find an active policy with the PolicyId: "
 					+ config.enrollmentPolicyName());
 		}
 
-		ApplicationRepository applicationRepo = tenantRepoFactory.getApplicationRepo();
-		ApplicationQueryHolder applicationQueryHolder = new ApplicationQueryHolder();
-		applicationQueryHolder.getSearchSpec().setApplicationId(appId);
-		ApplicationCollection applicationCollection;
-		try {
-			applicationCollection = applicationRepo.list(applicationQueryHolder, IdxCommon.getAccessToken(context, this));
-		} catch (IdxRestException e) {
-			throw new NodeProcessException(e);
-		}
-
-		if (applicationCollection.getItems().length > 0) {
-			request.setApplication(applicationCollection.getItems()[0]);
+		Application application = IdxLookupExecutor.await(applicationLookup, IdxTenant.OP_APPLICATION_LIST);
+		if (application != null) {
+			request.setApplication(application);
 		} else {
-			logger.debug(loggerPrefix + "No Application was found with this name " + appId);
+			logger.debug("No Application was found with this name {}", appId);
 			throw new NodeProcessException("No Application was found with this name " + appId);
 		}
 
-		SponsorshipRepository sponsorshipRepo = tenantRepoFactory.getSponsorshipRepo();
+		Sponsorship sponsorship;
 		try {
-			request = sponsorshipRepo.create(request, IdxCommon.getAccessToken(context, this));
+			sponsorship = tenant.execute(IdxTenant.OP_SPONSORSHIP_CREATE, f -> f.getSponsorshipRepo().create(request, requestHeaders));
 		} catch (IdxRestException e) {
-			logger.debug(loggerPrefix + "Error creating sponsorship for user: " + userId);
+			logger.debug("Error creating sponsorship for user: {}", userId);
 			throw new NodeProcessException(e);
 		}
 
 		// store the sponsorshipHref so we can query the status
-		sponsorshipHref = request.getHref();
+		sharedState.putShared(IDX_SPONSORSHIP_HREF, sponsorship.getHref());
 
-		logger.debug(loggerPrefix + "Sponsorship created for userId " + userId);
-		logger.debug(loggerPrefix + "Sponsorship Code: " + request.getSponsorshipToken());
+		logger.debug("Sponsorship created for userId {}", userId);
+		logger.debug("Sponsorship Code: {}", sponsorship.getSponsorshipToken());
 
+		// Only what the QR code is made of is kept, the script is rendered again on each poll
+		sharedState.putShared(IDX_SPONSORSHIP_TOKEN, sponsorship.getSponsorshipToken());
+		sharedState.putShared(IDX_SPONSORSHIP_POLICY_TYPE, policyType.name());
+		if (policyType == PolicyTypeEnum.IE) {
+			sharedState.putShared(IDX_SPONSORSHIP_GATEWAY_URL, sponsorship.getAuthenticationGatewayURL());
+		}
+	}
+
+	private String getQRText(NodeState sharedState) {
 		// AM will build the QR code. Just need to provide the URL string
-		String sponsorshipCodeUrl = "identityx://sponsor?SC=" + request.getSponsorshipToken();
+		String sponsorshipToken = sharedState.get(IDX_SPONSORSHIP_TOKEN).asString();
+		String sponsorshipCodeUrl = "identityx://sponsor?SC=" + sponsorshipToken;
 
-		if (policyType == PolicyTypeEnum.IE) {
-			String authGatewayURL = request.getAuthenticationGatewayURL();
-			sponsorshipCodeUrl = "identityx://sponsor?SC=" + request.getSponsorshipToken() + "&KM=" + authGatewayURL
-					+ "&TC=";
+		if (PolicyTypeEnum.IE.name().equals(sharedState.get(IDX_SPONSORSHIP_POLICY_TYPE).asString())) {
+			String authGatewayURL = sharedState.get(IDX_SPONSORSHIP_GATEWAY_URL).asString();
+			sponsorshipCodeUrl = "identityx://sponsor?SC=" + sponsorshipToken + "&KM=" + authGatewayURL + "&TC=";
 		}
 
 		return sponsorshipCodeUrl;
 	}
 
-	private boolean isEnrolled(NodeState sharedState, TenantRepoFactory tenantRepoFactory, TreeContext context) throws Exception {
+	private String getSponsorshipStatus(NodeState sharedState, IdxTenant tenant, TreeContext context) throws Exception {
 
-		logger.debug(loggerPrefix + "Checking Sponsorship Status for: [{}]",
+		logger.debug("Checking Sponsorship Status for: [{}]",
 				sharedState.get("IdxKeyUserName").asString());
 
 		String href = sharedState.get(IDX_SPONSORSHIP_HREF).toString().replaceAll("\"", "");
-		logger.debug(loggerPrefix + "Href: " + href);
+		logger.debug("Href: {}", href);
 
-		SponsorshipRepository sponsorshipRepo = tenantRepoFactory.getSponsorshipRepo();
+		HashMap<String, String> requestHeaders = IdxCommon.getAccessToken(context, this);
 
 		Sponsorship request;
 		try {
-			request = sponsorshipRepo.get(href, IdxCommon.getAccessToken(context, this));
+			request = tenant.execute(IdxTenant.OP_SPONSORSHIP_GET, f -> f.getSponsorshipRepo().get(href, requestHeaders));
 		} catch (IdxRestException e) {
-			logger.debug(
-					loggerPrefix + "An exception occurred while attempting to determine the status of the sponsorship "
-							+ "request.  Exception: " + e.getMessage());
+			logger.debug("An exception occurred while attempting to determine the status of the sponsorship "
+					+ "request.  Exception: {}", e.getMessage());
 			throw new NodeProcessException(e);
 		}
 
 		// COMPLETED EXPIRED or PENDING
-		switch (request.getStatus().toString()) {
+		String status = request.getStatus().toString();
+		switch (status) {
 		case "PENDING":
-			logger.debug(loggerPrefix + "Sponsorship status PENDING");
-			return false;
+			logger.debug("Sponsorship status PENDING");
+			break;
 		case "COMPLETED":
-			logger.debug(loggerPrefix + "Sponsorship status COMPLETED");
-			return true;
+			logger.debug("Sponsorship status COMPLETED");
+			// The user may have been cached as not found before enrolling
+			IdxUserCache.invalidate(tenant, sharedState.get("IdxKeyUserName").asString());
+			IdxEnrolledUserIndex.recordEnrolled(tenant, sharedState.get("IdxKeyUserName").asString());
+			break;
 		case "EXPIRED":
-			logger.debug(loggerPrefix + "Sponsorship status EXPIRED");
-			return false;
+			logger.debug("Sponsorship status EXPIRED");
+			break;
 		default:
-			logger.debug(loggerPrefix + "Sponsorship status not recognized");
-			return false;
+			logger.debug("Sponsorship status not recognized: {}", status);
+			break;
 		}
+		return status;
 
 	}
 
@@ -357,7 +500,11 @@ public class IdxSponsorUser implements Node {
 		/**
 		 * Error occured. Need to check sharedstate for issue
 		 */
-		ERROR
+		ERROR,
+		/**
+		 * The sponsorship expired before the end user enrolled
+		 */
+		EXPIRED
 	}
 
 	/**
@@ -368,10 +515,16 @@ public class IdxSponsorUser implements Node {
 		public List<Outcome> getOutcomes(PreferredLocales locales, JsonValue nodeAttributes) {
 			ResourceBundle bundle = locales.getBundleInPreferredLocale(BUNDLE,
 					IdxSponsorOutcomeProvider.class.getClassLoader());
-			return ImmutableList.of(new Outcome(IdxSponsorOutcome.TRUE.name(), bundle.getString("trueOutcome")),
-					new Outcome(IdxSponsorOutcome.FALSE.name(), bundle.getString("falseOutcome")),
-					new Outcome(IdxSponsorOutcome.CANCEL.name(), bundle.getString("cancelOutcome")),
-					new Outcome(IdxSponsorOutcome.ERROR.name(), bundle.getString("errorOutcome")));
+			ImmutableList.Builder<Outcome> outcomes = ImmutableList.<Outcome>builder()
+					.add(new Outcome(IdxSponsorOutcome.TRUE.name(), bundle.getString("trueOutcome")),
+							new Outcome(IdxSponsorOutcome.FALSE.name(), bundle.getString("falseOutcome")),
+							new Outcome(IdxSponsorOutcome.CANCEL.name(), bundle.getString("cancelOutcome")),
+							new Outcome(IdxSponsorOutcome.ERROR.name(), bundle.getString("errorOutcome")));
+			if (nodeAttributes != null && nodeAttributes.isNotNull()
+					&& nodeAttributes.get("useExpiredOutcome").defaultTo(false).asBoolean()) {
+				outcomes.add(new Outcome(IdxSponsorOutcome.EXPIRED.name(), bundle.getString("expiredOutcome")));
+			}
+			return outcomes.build();
 		}
 	}
 
@@ -0,0 +1,465 @@
+package com.daon.idxAuthRequestNode;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+import com.identityx.auth.client.HttpClientRequestExecutor;
+import com.identityx.clientSDK.TenantRepoFactory;
+import com.identityx.clientSDK.base.RestClient;
+import com.identityx.clientSDK.credentialsProviders.SimpleCredentialsProvider;
+
+/**
+ * One IdentityX tenant: the TenantRepoFactory and the HTTP connection pool behind it. Instances are created
+ * and evicted by {@link IdxTenantRepoFactoryRegistry}, which guarantees a single instance per base URL.
+ *
+ * Repository calls go through {@link #execute(String, Operation)}, which leases a permit for the duration of
+ * the call. A tenant is a single route, so the SDK pool never opens more than
+ * {@code min(maxConnTotal, maxConnPerRoute)} connections to it, and there are as many permits, so calls wait
+ * for a connection here, within the connection timeout, rather than inside the SDK. Every wait is recorded in
+ * the {@code idx_pool_lease_wait_seconds} histogram, and the longest wait of the last minute is a gauge.
+ *
+ * The SDK's request executor does not expose its connection manager, so it is looked up by reflection. When
+ * it is found, the pool gauges report its own leased, pending, available and maximum counts, and the socket
+ * timeout, idle connection eviction and validate-after-inactivity settings are applied to it. When it is not,
+ * those settings are not applied, which is logged, and the gauges report the permits instead.
+ */
+class IdxTenant {
+
+	static final String OP_USER_LIST = "user.list";
+	static final String OP_POLICY_LIST = "policy.list";
+	static final String OP_APPLICATION_LIST = "application.list";
+	static final String OP_AUTH_REQUEST_CREATE = "authenticationRequest.create";
+	static final String OP_AUTH_REQUEST_GET = "authenticationRequest.get";
+	static final String OP_AUTH_REQUEST_UPDATE = "authenticationRequest.update";
+	static final String OP_SPONSORSHIP_CREATE = "sponsorship.create";
+	static final String OP_SPONSORSHIP_GET = "sponsorship.get";
+
+	static final String POOL_LEASE_WAIT_SECONDS = "idx_pool_lease_wait_seconds";
+
+	/** How deep the request executor's fields are searched for the connection manager. */
+	private static final int CONNECTION_MANAGER_SEARCH_DEPTH = 3;
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	static {
+		IdxMetrics.describe(POOL_LEASE_WAIT_SECONDS, "histogram", "Time spent waiting for a pooled IdentityX connection");
+	}
+
+	private final String baseURL;
+	private final PoolSettings settings;
+	private final HttpClientRequestExecutor requestExecutor;
+	private final TenantRepoFactory tenantRepoFactory;
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	private final Semaphore permits;
+	private final AtomicLong leaseCount = new AtomicLong();
+	private final AtomicLong leaseWaitNanos = new AtomicLong();
+	private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+	private volatile long lastWindowMaxLeaseWaitNanos;
+	private final Set<PoolSettings> conflictingSettings = ConcurrentHashMap.newKeySet();
+	private final boolean provisional;
+
+	private volatile long lastAccess = System.currentTimeMillis();
+	private volatile long settingsRequestedAt = lastAccess;
+
+	IdxTenant(String baseURL, PoolSettings settings) throws Exception {
+		this(baseURL, settings, false);
+	}
+
+	/**
+	 * @param provisional whether the tenant was created by a node that does not configure the pool, so its
+	 *                    settings are the defaults rather than anyone's choice
+	 */
+	IdxTenant(String baseURL, PoolSettings settings, boolean provisional) throws Exception {
+		logger.info("Creating IdentityX tenant for [{}] with {}", baseURL, settings);
+
+		SimpleCredentialsProvider provider = new SimpleCredentialsProvider(baseURL, null);
+		SSLConnectionSocketFactory socketFactory = SSLConnectionSocketFactory.getSocketFactory();
+		requestExecutor = new HttpClientRequestExecutor.HttpClientRequestExecutorBuilder().setApiKey(provider.getApiKey()).setSSLConnectionSocketFactory(socketFactory)
+				.setConnectionTimeout(settings.connectionTimeout).setMaxConnTotal(settings.maxConnTotal).setMaxConnPerRoute(settings.maxConnPerRoute).build();
+
+		RestClient restClient = new RestClient.RestClientBuilder().setRequestExecutor(requestExecutor).build();
+		tenantRepoFactory = new TenantRepoFactory.TenantRepoFactoryBuilder().setRestClient(restClient).setBaseUrl(provider.getBaseUrl()).build();
+
+		this.baseURL = baseURL;
+		this.settings = settings;
+		this.provisional = provisional;
+		this.permits = new Semaphore(settings.getConnectionLimit());
+		this.connectionManager = findConnectionManager(requestExecutor);
+		if (connectionManager != null) {
+			connectionManager.setValidateAfterInactivity(settings.validateAfterInactivity);
+			if (settings.socketTimeout > 0) {
+				SocketConfig socketConfig = connectionManager.getDefaultSocketConfig();
+				connectionManager.setDefaultSocketConfig((socketConfig == null ? SocketConfig.custom()
+						: SocketConfig.copy(socketConfig)).setSoTimeout(settings.socketTimeout).build());
+			}
+		} else {
+			logger.warn("Cannot find the connection pool of IdentityX tenant [{}], its socket timeout, idle eviction and "
+					+ "validation settings are not applied", baseURL);
+		}
+	}
+
+	/**
+	 * Publishes the pool gauges of this tenant, replacing those of a tenant it replaces.
+	 */
+	void registerMetrics() {
+		IdxMetrics.registerGauge("idx_pool_leased_connections", this::getLeasedConnections, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_pool_available_connections", this::getAvailableConnections, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_pool_pending_connections", this::getPendingConnections, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_pool_max_connections", this::getMaxConnections, "tenant", baseURL);
+		IdxMetrics.registerGauge("idx_pool_max_lease_wait_seconds", () -> getMaxLeaseWaitMillis() / 1000, "tenant", baseURL);
+	}
+
+	/**
+	 * Runs one IdentityX repository call while holding a pool lease. Waiting for a lease is bounded by the
+	 * configured connection timeout.
+	 */
+	<T, E extends Exception> T execute(String operation, Operation<T, E> call) throws E, NodeProcessException {
+		long waitStart = System.nanoTime();
+		boolean leased;
+		try {
+			leased = permits.tryAcquire(settings.connectionTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new NodeProcessException("Interrupted waiting for an IdentityX connection", ex);
+		}
+		long waited = System.nanoTime() - waitStart;
+		leaseWaitNanos.addAndGet(waited);
+		maxLeaseWaitNanos.accumulateAndGet(waited, Math::max);
+		IdxMetrics.recordLatency(POOL_LEASE_WAIT_SECONDS, waited, "tenant", baseURL);
+
+		if (!leased) {
+			IdxMetrics.increment(IdxMetrics.OPERATION_ERRORS_TOTAL, "operation", operation, "tenant", baseURL);
+			throw new NodeProcessException("Timed out after " + settings.connectionTimeout
+					+ "ms waiting for an IdentityX connection for " + operation);
+		}
+
+		leaseCount.incrementAndGet();
+		boolean failed = true;
+		try {
+			T result = call.apply(tenantRepoFactory);
+			failed = false;
+			return result;
+		} finally {
+			permits.release();
+			IdxMetrics.recordLatency(IdxMetrics.OPERATION_SECONDS, System.nanoTime() - waitStart, "operation", operation,
+					"tenant", baseURL);
+			if (failed) {
+				IdxMetrics.increment(IdxMetrics.OPERATION_ERRORS_TOTAL, "operation", operation, "tenant", baseURL);
+			}
+		}
+	}
+
+	String getBaseURL() {
+		return baseURL;
+	}
+
+	PoolSettings getSettings() {
+		return settings;
+	}
+
+	TenantRepoFactory getTenantRepoFactory() {
+		return tenantRepoFactory;
+	}
+
+	long getLastAccess() {
+		return lastAccess;
+	}
+
+	void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	boolean isProvisional() {
+		return provisional;
+	}
+
+	/**
+	 * @return when a node last asked for this tenant with the settings it was created with
+	 */
+	long getSettingsRequestedAt() {
+		return settingsRequestedAt;
+	}
+
+	void settingsRequested() {
+		settingsRequestedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records settings that another node asked for but this tenant does not use.
+	 *
+	 * @return whether these settings had not been recorded before
+	 */
+	boolean addConflictingSettings(PoolSettings other) {
+		return conflictingSettings.add(other);
+	}
+
+	/**
+	 * @return whether the pool gauges report the SDK connection pool itself rather than the permits
+	 */
+	boolean hasConnectionManager() {
+		return connectionManager != null;
+	}
+
+	int getLeasedConnections() {
+		if (connectionManager != null) {
+			return connectionManager.getTotalStats().getLeased();
+		}
+		return settings.getConnectionLimit() - permits.availablePermits();
+	}
+
+	/**
+	 * @return the idle connections kept open in the pool, or the free permits when the pool is not found
+	 */
+	int getAvailableConnections() {
+		if (connectionManager != null) {
+			return connectionManager.getTotalStats().getAvailable();
+		}
+		return permits.availablePermits();
+	}
+
+	int getPendingConnections() {
+		if (connectionManager != null) {
+			return connectionManager.getTotalStats().getPending() + permits.getQueueLength();
+		}
+		return permits.getQueueLength();
+	}
+
+	int getMaxConnections() {
+		if (connectionManager != null) {
+			return connectionManager.getTotalStats().getMax();
+		}
+		return settings.getConnectionLimit();
+	}
+
+	/**
+	 * Closes expired connections and those idle for longer than the configured idle timeout.
+	 */
+	void evictIdleConnections() {
+		if (connectionManager != null) {
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(settings.idleConnectionTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Starts a new window for the longest lease wait gauge.
+	 */
+	void rollLeaseWaitWindow() {
+		lastWindowMaxLeaseWaitNanos = maxLeaseWaitNanos.getAndSet(0);
+	}
+
+	long getLeaseCount() {
+		return leaseCount.get();
+	}
+
+	double getAverageLeaseWaitMillis() {
+		long count = leaseCount.get();
+		return count == 0 ? 0 : leaseWaitNanos.get() / 1_000_000.0 / count;
+	}
+
+	/**
+	 * @return the longest lease wait of the current and the previous window
+	 */
+	double getMaxLeaseWaitMillis() {
+		return Math.max(maxLeaseWaitNanos.get(), lastWindowMaxLeaseWaitNanos) / 1_000_000.0;
+	}
+
+	/**
+	 * Releases the connection pool. Logs a warning when the pool cannot be found or closed, in which case its
+	 * connections are only released once they are garbage collected.
+	 */
+	void close() {
+		if (closePool(requestExecutor)) {
+			logger.info("Closed IdentityX tenant for [{}]", baseURL);
+		} else {
+			logger.warn("Could not close the connection pool of IdentityX tenant [{}]", baseURL);
+		}
+	}
+
+	/**
+	 * The SDK's request executor does not expose its HTTP client, so this closes the executor if it is
+	 * Closeable and otherwise the CloseableHttpClient or connection manager it holds.
+	 *
+	 * @return whether anything was closed
+	 */
+	private boolean closePool(Object executor) {
+		if (executor == null) {
+			return false;
+		}
+		if (executor instanceof Closeable) {
+			return closeQuietly(executor);
+		}
+		boolean closed = false;
+		for (Class<?> type = executor.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+					continue;
+				}
+				Object value;
+				try {
+					field.setAccessible(true);
+					value = field.get(executor);
+				} catch (ReflectiveOperationException | RuntimeException ex) {
+					continue;
+				}
+				if (value instanceof Closeable || value instanceof HttpClientConnectionManager) {
+					closed |= closeQuietly(value);
+				}
+			}
+		}
+		return closed;
+	}
+
+	/**
+	 * Searches the fields of the request executor, and of the Apache HTTP client objects it holds, for the
+	 * pooling connection manager.
+	 *
+	 * @return the connection manager, or null when there is none within reach
+	 */
+	static PoolingHttpClientConnectionManager findConnectionManager(Object executor) {
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Object> level = new ArrayDeque<>();
+		if (executor != null) {
+			level.add(executor);
+		}
+		for (int depth = 0; depth <= CONNECTION_MANAGER_SEARCH_DEPTH && !level.isEmpty(); depth++) {
+			Deque<Object> next = new ArrayDeque<>();
+			for (Object object : level) {
+				if (object instanceof PoolingHttpClientConnectionManager) {
+					return (PoolingHttpClientConnectionManager) object;
+				}
+				if (!seen.add(object) || !isSearched(object.getClass())) {
+					continue;
+				}
+				for (Class<?> type = object.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+					for (Field field : type.getDeclaredFields()) {
+						if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+							continue;
+						}
+						try {
+							field.setAccessible(true);
+							Object value = field.get(object);
+							if (value != null) {
+								next.add(value);
+							}
+						} catch (ReflectiveOperationException | RuntimeException ex) {
+							// Not readable, keep looking elsewhere
+						}
+					}
+				}
+			}
+			level = next;
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the fields of objects of this type may lead to the connection manager
+	 */
+	private static boolean isSearched(Class<?> type) {
+		String name = type.getName();
+		return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.")
+				&& !name.startsWith("com.fasterxml.");
+	}
+
+	private boolean closeQuietly(Object pool) {
+		try {
+			if (pool instanceof Closeable) {
+				((Closeable) pool).close();
+			} else {
+				((HttpClientConnectionManager) pool).shutdown();
+			}
+			return true;
+		} catch (Exception ex) {
+			logger.warn("Error closing the connection pool for [{}]: {}", baseURL, ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * A call against the tenant's repositories.
+	 */
+	@FunctionalInterface
+	interface Operation<T, E extends Exception> {
+		T apply(TenantRepoFactory tenantRepoFactory) throws E;
+	}
+
+	/**
+	 * Connection pool settings for a tenant, configured on the IdentityX Check Enrollment Status node. A socket
+	 * timeout of 0 keeps the SDK's own.
+	 */
+	static final class PoolSettings {
+
+		static final PoolSettings DEFAULT = new PoolSettings(50000, 50, 20, 0, 60000, 2000);
+
+		private final int connectionTimeout;
+		private final int maxConnTotal;
+		private final int maxConnPerRoute;
+		private final int socketTimeout;
+		private final int idleConnectionTimeout;
+		private final int validateAfterInactivity;
+
+		PoolSettings(int connectionTimeout, int maxConnTotal, int maxConnPerRoute, int socketTimeout,
+				int idleConnectionTimeout, int validateAfterInactivity) {
+			this.connectionTimeout = Math.max(1, connectionTimeout);
+			this.maxConnTotal = Math.max(1, maxConnTotal);
+			this.maxConnPerRoute = Math.max(1, Math.min(maxConnPerRoute, this.maxConnTotal));
+			this.socketTimeout = Math.max(0, socketTimeout);
+			this.idleConnectionTimeout = Math.max(1, idleConnectionTimeout);
+			this.validateAfterInactivity = Math.max(0, validateAfterInactivity);
+		}
+
+		/**
+		 * @return the most connections the pool opens to the tenant, which has a single route
+		 */
+		int getConnectionLimit() {
+			return Math.min(maxConnTotal, maxConnPerRoute);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof PoolSettings)) {
+				return false;
+			}
+			PoolSettings other = (PoolSettings) o;
+			return connectionTimeout == other.connectionTimeout && maxConnTotal == other.maxConnTotal
+					&& maxConnPerRoute == other.maxConnPerRoute && socketTimeout == other.socketTimeout
+					&& idleConnectionTimeout == other.idleConnectionTimeout
+					&& validateAfterInactivity == other.validateAfterInactivity;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(connectionTimeout, maxConnTotal, maxConnPerRoute, socketTimeout, idleConnectionTimeout,
+					validateAfterInactivity);
+		}
+
+		@Override
+		public String toString() {
+			return "connectionTimeout=" + connectionTimeout + " maxConnTotal=" + maxConnTotal + " maxConnPerRoute="
+					+ maxConnPerRoute + " socketTimeout=" + socketTimeout + " idleConnectionTimeout="
+					+ idleConnectionTimeout + " validateAfterInactivity=" + validateAfterInactivity;
+		}
+	}
+}
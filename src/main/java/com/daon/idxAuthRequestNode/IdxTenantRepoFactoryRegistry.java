@@ -0,0 +1,239 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+/**
+ * Per-JVM registry of IdentityX tenants keyed by normalized base URL.
+ *
+ * Each tenant gets exactly one TenantRepoFactory and connection pool, created race-free on first use, so
+ * trees pointing at the same or at different tenants never rebuild each other's pools. Tenants that have not
+ * been used for a while are evicted and their pools closed; the registry is also capped at a maximum number of
+ * tenants, evicting the least recently used one when a new tenant would exceed it. Limits are JVM wide and
+ * read from system properties:
+ * <ul>
+ * <li>{@code com.daon.idx.tenant.max} (default 32)</li>
+ * <li>{@code com.daon.idx.tenant.idleEvictionMs} (default 1800000)</li>
+ * <li>{@code com.daon.idx.tenant.settingsChangeMs} (default 60000), see
+ * {@link #getTenant(String, IdxTenant.PoolSettings)}</li>
+ * </ul>
+ */
+final class IdxTenantRepoFactoryRegistry {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	private static final int MAX_TENANTS = Integer.getInteger("com.daon.idx.tenant.max", 32);
+	private static final long IDLE_EVICTION_MS = Long.getLong("com.daon.idx.tenant.idleEvictionMs", 30 * 60_000L);
+	private static final long SETTINGS_CHANGE_MS = Long.getLong("com.daon.idx.tenant.settingsChangeMs", 60_000L);
+
+	/** Evicted pools are closed after this delay so calls that already hold the tenant can finish. */
+	private static final long CLOSE_GRACE_MS = 60_000L;
+
+	/** How often idle connections are closed, so the configured idle timeout is kept within this. */
+	private static final long CONNECTION_EVICTION_INTERVAL_MS = 5_000L;
+
+	private static final ConcurrentHashMap<String, IdxTenant> tenants = new ConcurrentHashMap<>();
+
+	private static final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "idx-tenant-housekeeper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		housekeeper.scheduleWithFixedDelay(IdxTenantRepoFactoryRegistry::evictIdle, 60, 60, TimeUnit.SECONDS);
+		housekeeper.scheduleWithFixedDelay(IdxTenantRepoFactoryRegistry::evictIdleConnections,
+				CONNECTION_EVICTION_INTERVAL_MS, CONNECTION_EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		IdxMetrics.registerGauge("idx_tenants", IdxTenantRepoFactoryRegistry::size);
+	}
+
+	private IdxTenantRepoFactoryRegistry() {
+	}
+
+	/**
+	 * Returns the tenant for the base URL, creating it with default pool settings if this JVM has not seen
+	 * it yet. Such a tenant is provisional: the first node that configures the pool replaces it.
+	 */
+	static IdxTenant getTenant(String baseURL) throws Exception {
+		return getTenant(baseURL, null);
+	}
+
+	/**
+	 * Returns the tenant for the base URL, creating it with the given settings if this JVM has not seen it
+	 * yet.
+	 *
+	 * A tenant is rebuilt with the given settings when it is provisional, or when no node has asked for the
+	 * settings it was created with for {@code com.daon.idx.tenant.settingsChangeMs}, which is what happens
+	 * when the pool configuration is changed. While nodes pointing at the same tenant are configured with
+	 * different settings and all of them are in use, the tenant keeps its settings and the others are logged
+	 * once as a conflict, so they do not rebuild each other's pool. A replaced tenant's pool is closed after
+	 * a grace period.
+	 */
+	static IdxTenant getTenant(String baseURL, IdxTenant.PoolSettings settings) throws Exception {
+		if (baseURL == null) {
+			throw new NodeProcessException("IdentityX base URL is not set");
+		}
+		String key = normalize(baseURL);
+
+		IdxTenant tenant = tenants.get(key);
+		if (tenant == null || (settings != null && isReplacedBy(tenant, settings))) {
+			tenant = createOrReplace(key, settings);
+		}
+		if (settings != null) {
+			if (settings.equals(tenant.getSettings())) {
+				tenant.settingsRequested();
+			} else if (tenant.addConflictingSettings(settings)) {
+				logger.warn("IdentityX tenant [{}] is configured with different pool settings on another node, keeping {} and ignoring {}",
+						key, tenant.getSettings(), settings);
+			}
+		}
+
+		tenant.touch();
+		return tenant;
+	}
+
+	private static boolean isReplacedBy(IdxTenant tenant, IdxTenant.PoolSettings settings) {
+		return !settings.equals(tenant.getSettings()) && (tenant.isProvisional()
+				|| System.currentTimeMillis() - tenant.getSettingsRequestedAt() >= SETTINGS_CHANGE_MS);
+	}
+
+	private static IdxTenant createOrReplace(String key, IdxTenant.PoolSettings settings) throws NodeProcessException {
+		AtomicReference<IdxTenant> created = new AtomicReference<>();
+		AtomicReference<IdxTenant> replaced = new AtomicReference<>();
+		IdxTenant tenant;
+		try {
+			tenant = tenants.compute(key, (k, existing) -> {
+				if (existing != null && (settings == null || !isReplacedBy(existing, settings))) {
+					return existing;
+				}
+				try {
+					IdxTenant fresh = settings == null ? new IdxTenant(k, IdxTenant.PoolSettings.DEFAULT, true)
+							: new IdxTenant(k, settings);
+					created.set(fresh);
+					replaced.set(existing);
+					return fresh;
+				} catch (Exception ex) {
+					throw new TenantCreationException(ex);
+				}
+			});
+		} catch (TenantCreationException ex) {
+			throw new NodeProcessException("Error creating tenantRepoFactory for " + key, ex.getCause());
+		}
+		if (created.get() != null) {
+			tenant.registerMetrics();
+			if (replaced.get() != null) {
+				logger.info("Replaced the pool of IdentityX tenant [{}], {} replaces {}", key, settings,
+						replaced.get().getSettings());
+				scheduleClose(replaced.get());
+			} else if (tenants.size() > MAX_TENANTS) {
+				evictLeastRecentlyUsed(key);
+			}
+		}
+		return tenant;
+	}
+
+	/**
+	 * @return a snapshot of the registered tenants, for pool telemetry
+	 */
+	static Collection<IdxTenant> getTenants() {
+		return Collections.unmodifiableCollection(new ArrayList<>(tenants.values()));
+	}
+
+	static int size() {
+		return tenants.size();
+	}
+
+	/**
+	 * Evicts every tenant and closes its pool straight away, without the grace period.
+	 */
+	static void clear() {
+		for (Map.Entry<String, IdxTenant> entry : tenants.entrySet()) {
+			if (tenants.remove(entry.getKey(), entry.getValue())) {
+				IdxMetrics.removeGauges("tenant", entry.getKey());
+				entry.getValue().close();
+			}
+		}
+	}
+
+	/**
+	 * Lower-cases the scheme and host and drops surrounding whitespace and trailing slashes, so equivalent
+	 * spellings of the same tenant URL share one entry.
+	 */
+	static String normalize(String baseURL) {
+		String url = baseURL.trim();
+		while (url.endsWith("/")) {
+			url = url.substring(0, url.length() - 1);
+		}
+		int schemeEnd = url.indexOf("://");
+		int pathStart = schemeEnd < 0 ? url.indexOf('/') : url.indexOf('/', schemeEnd + 3);
+		if (pathStart < 0) {
+			return url.toLowerCase(Locale.ROOT);
+		}
+		return url.substring(0, pathStart).toLowerCase(Locale.ROOT) + url.substring(pathStart);
+	}
+
+	private static void evictIdle() {
+		long cutoff = System.currentTimeMillis() - IDLE_EVICTION_MS;
+		for (Map.Entry<String, IdxTenant> entry : tenants.entrySet()) {
+			IdxTenant tenant = entry.getValue();
+			if (tenant.getLastAccess() < cutoff) {
+				evict(entry.getKey(), tenant);
+			} else {
+				logger.debug("Pool [{}] leased={} available={} pending={} max={} avgLeaseWaitMs={} maxLeaseWaitMs={}",
+						entry.getKey(), tenant.getLeasedConnections(), tenant.getAvailableConnections(),
+						tenant.getPendingConnections(), tenant.getMaxConnections(), tenant.getAverageLeaseWaitMillis(),
+						tenant.getMaxLeaseWaitMillis());
+				tenant.rollLeaseWaitWindow();
+			}
+		}
+	}
+
+	private static void evictIdleConnections() {
+		for (IdxTenant tenant : tenants.values()) {
+			try {
+				tenant.evictIdleConnections();
+			} catch (RuntimeException ex) {
+				logger.debug("Cannot close idle connections of [{}]: {}", tenant.getBaseURL(), ex.toString());
+			}
+		}
+	}
+
+	private static void evictLeastRecentlyUsed(String keep) {
+		Optional<Map.Entry<String, IdxTenant>> oldest = tenants.entrySet().stream()
+				.filter(entry -> !entry.getKey().equals(keep))
+				.min(Comparator.comparingLong(entry -> entry.getValue().getLastAccess()));
+		oldest.ifPresent(entry -> evict(entry.getKey(), entry.getValue()));
+	}
+
+	private static void evict(String key, IdxTenant tenant) {
+		if (tenants.remove(key, tenant)) {
+			logger.debug("Evicting IdentityX tenant [{}]", key);
+			IdxMetrics.removeGauges("tenant", key);
+			scheduleClose(tenant);
+		}
+	}
+
+	private static void scheduleClose(IdxTenant tenant) {
+		housekeeper.schedule(tenant::close, CLOSE_GRACE_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private static final class TenantCreationException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		TenantCreationException(Exception cause) {
+			super(cause);
+		}
+	}
+}
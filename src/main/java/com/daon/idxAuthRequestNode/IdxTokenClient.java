@@ -0,0 +1,132 @@
+package com.daon.idxAuthRequestNode;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Asynchronous HTTP client for the OAuth2 token endpoint.
+ *
+ * Runs on its own executor with connect and request timeouts so a slow token endpoint cannot hold login
+ * threads indefinitely. The executor's queue is unbounded because the JDK client also hands it internal
+ * completion work, which must never be rejected or run on the selector thread; instead the number of
+ * requests in flight is bounded, and a request over the limit fails at once. The settings are JVM wide and
+ * read from system properties:
+ * <ul>
+ * <li>{@code com.daon.idx.token.connectTimeoutMs} (default 5000)</li>
+ * <li>{@code com.daon.idx.token.requestTimeoutMs} (default 10000)</li>
+ * <li>{@code com.daon.idx.token.threads} (default 4)</li>
+ * <li>{@code com.daon.idx.token.maxInFlight} (default 256)</li>
+ * </ul>
+ */
+final class IdxTokenClient {
+
+	private static LoggerWrapper logger = new LoggerWrapper();
+
+	static final long CONNECT_TIMEOUT_MS = Long.getLong("com.daon.idx.token.connectTimeoutMs", 5_000L);
+	static final long REQUEST_TIMEOUT_MS = Long.getLong("com.daon.idx.token.requestTimeoutMs", 10_000L);
+	private static final int THREADS = Integer.getInteger("com.daon.idx.token.threads", 4);
+	private static final int MAX_IN_FLIGHT = Integer.getInteger("com.daon.idx.token.maxInFlight", 256);
+
+	private static final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+	private static final ThreadPoolExecutor executor = newExecutor();
+
+	private static final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+			.connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS)).executor(executor).build();
+
+	private IdxTokenClient() {
+	}
+
+	/**
+	 * Starts a token request in the background.
+	 *
+	 * @return a future completed with the token. The future fails if the request times out or cannot be sent,
+	 *         the endpoint does not return a token, or too many requests are already in flight.
+	 */
+	static CompletableFuture<IdxAccessTokenCache.Token> requestToken(HttpRequest request) {
+		if (!inFlight.tryAcquire()) {
+			return CompletableFuture.failedFuture(new RejectedExecutionException(
+					"More than " + MAX_IN_FLIGHT + " token requests in flight"));
+		}
+		long requestedAt = System.currentTimeMillis();
+		try {
+			return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+					.whenComplete((response, ex) -> inFlight.release())
+					.thenApply(response -> parse(response, requestedAt));
+		} catch (RuntimeException ex) {
+			inFlight.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return a builder for token endpoint requests with the configured request timeout applied
+	 */
+	static HttpRequest.Builder newRequestBuilder() {
+		return HttpRequest.newBuilder().timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS));
+	}
+
+	/**
+	 * @return the longest a caller needs to wait for a request started through this client
+	 */
+	static long maxWaitMillis() {
+		return CONNECT_TIMEOUT_MS + REQUEST_TIMEOUT_MS;
+	}
+
+	/**
+	 * @throws CompletionException wrapping a NodeProcessException when the response carries no token
+	 */
+	private static IdxAccessTokenCache.Token parse(HttpResponse<String> response, long requestedAt) {
+		if (response.statusCode() != 200) {
+			logger.warn("Token endpoint {} returned HTTP {}", response.uri(), response.statusCode());
+			throw new CompletionException(new NodeProcessException(
+					"Token endpoint " + response.uri() + " returned HTTP " + response.statusCode()));
+		}
+
+		JsonNode body;
+		try {
+			body = IdxCommon.objectMapper.readTree(response.body());
+		} catch (Exception ex) {
+			logger.warn("Token endpoint returned an unreadable body: {}", ex.toString());
+			throw new CompletionException(new NodeProcessException("Token endpoint returned an unreadable body", ex));
+		}
+		JsonNode accessToken = body.get("access_token");
+		if (accessToken == null || !accessToken.isTextual()) {
+			logger.warn("Token endpoint {} returned no access_token", response.uri());
+			throw new CompletionException(
+					new NodeProcessException("Token endpoint " + response.uri() + " returned no access_token"));
+		}
+
+		long expiresInMillis = body.path("expires_in").asLong(0) * 1000L;
+		if (expiresInMillis <= 0) {
+			expiresInMillis = IdxAccessTokenCache.DEFAULT_LIFETIME_MS;
+		}
+		return new IdxAccessTokenCache.Token(accessToken.asText(), requestedAt, expiresInMillis);
+	}
+
+	private static ThreadPoolExecutor newExecutor() {
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "idx-token-client-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+}
@@ -0,0 +1,207 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.daon.identityx.rest.model.pojo.User;
+
+/**
+ * Per-JVM cache of IdentityX user lookups keyed by tenant and user ID.
+ *
+ * Found users are kept for the positive TTL and unknown user IDs for the shorter negative TTL, so repeated
+ * logins and bursts of unknown usernames do not each cost a user list call. When IdentityX fails, a found
+ * user that has expired less than the stale-if-error window ago is served instead of failing the login. A
+ * cached "not found" is never served stale, so the lookup error reaches the node rather than turning into
+ * User Not Enrolled. The cache holds at most a fixed number of entries and evicts the least recently used
+ * one beyond that.
+ *
+ * A cached user is the same instance for every journey that reads it, so it must be treated as read-only;
+ * a caller that needs to change a user copies it first. The settings are JVM wide and read from system
+ * properties:
+ * <ul>
+ * <li>{@code com.daon.idx.userCache.max} (default 10000, 0 disables the cache)</li>
+ * <li>{@code com.daon.idx.userCache.positiveTtlMs} (default 30000)</li>
+ * <li>{@code com.daon.idx.userCache.negativeTtlMs} (default 5000)</li>
+ * <li>{@code com.daon.idx.userCache.staleIfErrorMs} (default 300000)</li>
+ * </ul>
+ */
+final class IdxUserCache {
+
+	private static final int MAX_ENTRIES = Integer.getInteger("com.daon.idx.userCache.max", 10_000);
+	private static final long POSITIVE_TTL_MS = Long.getLong("com.daon.idx.userCache.positiveTtlMs", 30_000L);
+	private static final long NEGATIVE_TTL_MS = Long.getLong("com.daon.idx.userCache.negativeTtlMs", 5_000L);
+	private static final long STALE_IF_ERROR_MS = Long.getLong("com.daon.idx.userCache.staleIfErrorMs", 300_000L);
+
+	private static final AtomicLong hitCount = new AtomicLong();
+	private static final AtomicLong negativeHitCount = new AtomicLong();
+	private static final AtomicLong missCount = new AtomicLong();
+	private static final AtomicLong staleCount = new AtomicLong();
+	private static final AtomicLong evictionCount = new AtomicLong();
+	private static final AtomicLong invalidationCount = new AtomicLong();
+
+	private static volatile LongSupplier clock = System::currentTimeMillis;
+
+	private static final Map<String, Entry> users = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() > MAX_ENTRIES) {
+				evictionCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	static {
+		IdxMetrics.registerGauge("idx_user_cache_entries", IdxUserCache::size);
+		IdxMetrics.registerGauge("idx_user_cache_hit_ratio", IdxUserCache::getHitRatio);
+		IdxMetrics.registerCounter("idx_user_cache_hits_total", "User lookups answered with a found user", hitCount::get);
+		IdxMetrics.registerCounter("idx_user_cache_negative_hits_total", "User lookups answered as not found", negativeHitCount::get);
+		IdxMetrics.registerCounter("idx_user_cache_misses_total", "User lookups not answered from the cache", missCount::get);
+		IdxMetrics.registerCounter("idx_user_cache_stale_total", "Stale users served because IdentityX failed", staleCount::get);
+		IdxMetrics.registerCounter("idx_user_cache_evictions_total", "Users evicted from the cache", evictionCount::get);
+	}
+
+	private IdxUserCache() {
+	}
+
+	static boolean isEnabled() {
+		return MAX_ENTRIES > 0;
+	}
+
+	/**
+	 * Replaces the clock the TTLs are measured with, for tests.
+	 */
+	static void setClock(LongSupplier millis) {
+		clock = millis;
+	}
+
+	/**
+	 * @return the cached lookup for the user, fresh or not, or null when there is none. Its user is shared
+	 *         and must not be modified.
+	 */
+	static Entry get(IdxTenant tenant, String userId) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Entry entry;
+		synchronized (users) {
+			entry = users.get(key(tenant, userId));
+		}
+		if (entry == null || !entry.isFresh()) {
+			missCount.incrementAndGet();
+		} else if (entry.user == null) {
+			negativeHitCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Stores the result of a user lookup; a null user records that the user ID is unknown.
+	 */
+	static void put(IdxTenant tenant, String userId, User user) {
+		if (!isEnabled()) {
+			return;
+		}
+		Entry entry = new Entry(user, clock.getAsLong() + (user == null ? NEGATIVE_TTL_MS : POSITIVE_TTL_MS));
+		synchronized (users) {
+			users.put(key(tenant, userId), entry);
+		}
+	}
+
+	/**
+	 * Returns the entry to serve in place of a failed lookup, or null when there is no found user recent
+	 * enough.
+	 */
+	static Entry getStale(Entry entry) {
+		if (entry == null || entry.user == null || clock.getAsLong() >= entry.expiresAt + STALE_IF_ERROR_MS) {
+			return null;
+		}
+		staleCount.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Drops the cached lookup for the user, for example once the user has completed enrollment.
+	 */
+	static void invalidate(IdxTenant tenant, String userId) {
+		if (!isEnabled()) {
+			return;
+		}
+		synchronized (users) {
+			if (users.remove(key(tenant, userId)) != null) {
+				invalidationCount.incrementAndGet();
+			}
+		}
+	}
+
+	static long getHitCount() {
+		return hitCount.get();
+	}
+
+	static long getNegativeHitCount() {
+		return negativeHitCount.get();
+	}
+
+	static long getMissCount() {
+		return missCount.get();
+	}
+
+	static long getStaleCount() {
+		return staleCount.get();
+	}
+
+	static long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	static long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * @return the share of lookups, found or not found, answered from the cache
+	 */
+	static double getHitRatio() {
+		long hits = hitCount.get() + negativeHitCount.get();
+		long total = hits + missCount.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	static int size() {
+		synchronized (users) {
+			return users.size();
+		}
+	}
+
+	private static String key(IdxTenant tenant, String userId) {
+		return tenant.getBaseURL() + "|" + userId;
+	}
+
+	static final class Entry {
+		private final User user;
+		private final long expiresAt;
+
+		Entry(User user, long expiresAt) {
+			this.user = user;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * @return the user, or null when the lookup found no user. The user is shared, so it is read-only.
+		 */
+		User getUser() {
+			return user;
+		}
+
+		boolean isFresh() {
+			return clock.getAsLong() < expiresAt;
+		}
+	}
+}
@@ -1,89 +1,183 @@
 package com.daon.idxAuthRequestNode;
 
+import java.util.function.Supplier;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Logs to AM's debug logger with the IDX prefix and, for nodes, the node's own prefix.
+ *
+ * The logger is looked up once per class loader. Every method checks the level before doing any work, and
+ * the prefix is only added to messages that are logged, so callers should pass values as {} parameters or a
+ * supplier instead of concatenating them into the message. The one and two argument overloads avoid the
+ * varargs array.
+ */
 public class LoggerWrapper {
-	
+
 	private static final String LOGGER_NAME = "amAuth";
 	private static final String LOGGER_PREFIX = "IDX: ";
 
-	private Logger debugLogger;
+	private static final Logger debugLogger = getLogger();
 
-	private boolean initialized = false;
+	private final String prefix;
 
-	private void init() {
-		if (initialized) {
-			return;
-		}
+	public LoggerWrapper() {
+		this("");
+	}
+
+	/**
+	 * @param nodePrefix added to every message after the IDX prefix
+	 */
+	public LoggerWrapper(String nodePrefix) {
+		this.prefix = LOGGER_PREFIX + nodePrefix;
+	}
+
+	private static Logger getLogger() {
 		try {
-			debugLogger = LoggerFactory.getLogger(LOGGER_NAME);
+			return LoggerFactory.getLogger(LOGGER_NAME);
 		} catch (Exception ex) {
-			debugLogger = null;
+			return null;
 		}
-		initialized = true;
 	}
-	
+
+	public boolean isDebugEnabled() {
+		return debugLogger != null && debugLogger.isDebugEnabled();
+	}
+
+	public boolean isInfoEnabled() {
+		return debugLogger != null && debugLogger.isInfoEnabled();
+	}
+
+	public boolean isWarnEnabled() {
+		return debugLogger != null && debugLogger.isWarnEnabled();
+	}
+
+	public boolean isErrorEnabled() {
+		return debugLogger != null && debugLogger.isErrorEnabled();
+	}
+
 	public void debug(String message) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.debug(LOGGER_PREFIX + message);
+		if (isDebugEnabled()) {
+			debugLogger.debug(prefix + message);
+		}
+	}
+
+	public void debug(String message, Object arg) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(prefix + message, arg);
+		}
+	}
+
+	public void debug(String message, Object arg1, Object arg2) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(prefix + message, arg1, arg2);
 		}
 	}
-	
+
 	public void debug(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.debug(LOGGER_PREFIX + message, info);
+		if (isDebugEnabled()) {
+			debugLogger.debug(prefix + message, info);
+		}
+	}
+
+	public void debug(Supplier<String> message) {
+		if (isDebugEnabled()) {
+			debugLogger.debug(prefix + message.get());
 		}
 	}
 
 	public void warn(String message) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.warn(LOGGER_PREFIX + message);
+		if (isWarnEnabled()) {
+			debugLogger.warn(prefix + message);
+		}
+	}
+
+	public void warn(String message, Object arg) {
+		if (isWarnEnabled()) {
+			debugLogger.warn(prefix + message, arg);
 		}
 	}
-	
+
+	public void warn(String message, Object arg1, Object arg2) {
+		if (isWarnEnabled()) {
+			debugLogger.warn(prefix + message, arg1, arg2);
+		}
+	}
+
 	public void warn(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.warn(LOGGER_PREFIX + message, info);
+		if (isWarnEnabled()) {
+			debugLogger.warn(prefix + message, info);
 		}
 	}
-	
+
+	public void warn(Supplier<String> message) {
+		if (isWarnEnabled()) {
+			debugLogger.warn(prefix + message.get());
+		}
+	}
+
 	public void info(String message) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.info(LOGGER_PREFIX + message);
+		if (isInfoEnabled()) {
+			debugLogger.info(prefix + message);
 		}
 	}
-	
+
+	public void info(String message, Object arg) {
+		if (isInfoEnabled()) {
+			debugLogger.info(prefix + message, arg);
+		}
+	}
+
+	public void info(String message, Object arg1, Object arg2) {
+		if (isInfoEnabled()) {
+			debugLogger.info(prefix + message, arg1, arg2);
+		}
+	}
+
 	public void info(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.info(LOGGER_PREFIX +message, info);
+		if (isInfoEnabled()) {
+			debugLogger.info(prefix + message, info);
 		}
 	}
 
-	public void warning(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.warn(LOGGER_PREFIX + message, info);
+	public void info(Supplier<String> message) {
+		if (isInfoEnabled()) {
+			debugLogger.info(prefix + message.get());
 		}
 	}
-	
+
+	public void warning(String message, Object... info) {
+		warn(message, info);
+	}
+
 	public void error(String message) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.error(LOGGER_PREFIX +message);
+		if (isErrorEnabled()) {
+			debugLogger.error(prefix + message);
+		}
+	}
+
+	public void error(String message, Object arg) {
+		if (isErrorEnabled()) {
+			debugLogger.error(prefix + message, arg);
+		}
+	}
+
+	public void error(String message, Object arg1, Object arg2) {
+		if (isErrorEnabled()) {
+			debugLogger.error(prefix + message, arg1, arg2);
 		}
 	}
 
 	public void error(String message, Object... info) {
-		init();
-		if (debugLogger != null) {
-			debugLogger.error(LOGGER_PREFIX + message, info);
+		if (isErrorEnabled()) {
+			debugLogger.error(prefix + message, info);
+		}
+	}
+
+	public void error(Supplier<String> message) {
+		if (isErrorEnabled()) {
+			debugLogger.error(prefix + message.get());
 		}
 	}
 }
@@ -0,0 +1,164 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class IdxAccessTokenCacheTest {
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long delayMillis;
+	private volatile String expiresIn = ",\"expires_in\":3600";
+	private volatile int status = 200;
+	private volatile boolean withToken = true;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/token", this::handleToken);
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void concurrentMissesShareOneFetch() throws Exception {
+		delayMillis = 300;
+		int callers = 16;
+		ExecutorService pool = Executors.newFixedThreadPool(callers);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(pool.submit(() -> {
+					start.await();
+					return IdxAccessTokenCache.getAccessToken("singleFlight", "secret", tokenURL(), "scope");
+				}));
+			}
+			start.countDown();
+			for (Future<String> result : results) {
+				assertEquals("token-1", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, requests.get());
+
+		// A cached token is served without another fetch
+		assertEquals("token-1", IdxAccessTokenCache.getAccessToken("singleFlight", "secret", tokenURL(), "scope"));
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void differentKeysFetchSeparately() throws Exception {
+		delayMillis = 100;
+		CompletableFuture<IdxAccessTokenCache.Token> first = IdxAccessTokenCache.getTokenAsync("keyA", "secret", tokenURL(), "scope");
+		CompletableFuture<IdxAccessTokenCache.Token> second = IdxAccessTokenCache.getTokenAsync("keyB", "secret", tokenURL(), "scope");
+		first.get(10, TimeUnit.SECONDS);
+		second.get(10, TimeUnit.SECONDS);
+		assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void getTokenHonoursTheWaitTimeout() throws Exception {
+		long maxWait = IdxTokenClient.maxWaitMillis();
+		delayMillis = maxWait + 5_000;
+		long start = System.currentTimeMillis();
+		try {
+			IdxAccessTokenCache.getToken("slowEndpoint", "secret", tokenURL(), "scope");
+			fail("Expected the token fetch to time out");
+		} catch (NodeProcessException expected) {
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("Waited " + elapsed + "ms, limit is " + maxWait + "ms", elapsed < maxWait + 1_000);
+		}
+	}
+
+	@Test
+	public void tokenWithoutExpiresInIsCached() throws Exception {
+		expiresIn = "";
+		IdxAccessTokenCache.Token token = IdxAccessTokenCache.getToken("noExpiresIn", null, tokenURL(), "scope");
+		assertEquals("token-1", token.getValue());
+		assertTrue(token.getUsableUntil() > System.currentTimeMillis() + IdxAccessTokenCache.DEFAULT_LIFETIME_MS / 2);
+
+		// A null secret is a valid key too, and the token is served from the cache
+		assertEquals("token-1", IdxAccessTokenCache.getAccessToken("noExpiresIn", null, tokenURL(), "scope"));
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void errorStatusFailsEveryCallerAndIsCached() throws Exception {
+		status = 500;
+		expectFailure("errorStatus");
+		expectFailure("errorStatus");
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void missingAccessTokenFails() throws Exception {
+		withToken = false;
+		expectFailure("missingToken");
+		assertEquals(1, requests.get());
+	}
+
+	private void expectFailure(String clientID) throws Exception {
+		try {
+			IdxAccessTokenCache.getToken(clientID, "secret", tokenURL(), "scope");
+			fail("Expected the token fetch to fail");
+		} catch (NodeProcessException expected) {
+			// The fetch failed rather than handing out a token without a value
+		}
+	}
+
+	private String tokenURL() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/token";
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		int count = requests.incrementAndGet();
+		try {
+			Thread.sleep(delayMillis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		String token = withToken ? "\"access_token\":\"token-" + count + "\"" : "\"error\":\"unavailable\"";
+		byte[] body = ("{" + token + expiresIn + "}").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		try {
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} catch (IOException ex) {
+			// The client gave up waiting
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.daon.idxAuthRequestNode;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so allocation per operation is reported next to the time.
+ * Run them with {@code mvn -P benchmarks verify}; JMH command line options, for example a benchmark name
+ * pattern, can be passed with {@code -Dbenchmark.args="..."}.
+ */
+public final class IdxBenchmarks {
+
+	private IdxBenchmarks() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(IdxBenchmarks.class.getPackage().getName() + ".Idx.*Benchmark");
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,42 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.daon.identityx.rest.model.pojo.AuthenticationRequest;
+
+public class IdxCommonAuthRequestReferenceTest {
+
+	private static final String HREF = "https://idx.example.com/tenant1/IdentityXServices/rest/v1/authenticationRequests/QTAzbq1nZkB";
+
+	@Test
+	public void identifiesTheRequestByHrefAndId() {
+		AuthenticationRequest reference = IdxCommon.getAuthRequestReference(HREF);
+		assertEquals(HREF, reference.getHref());
+		assertEquals("QTAzbq1nZkB", reference.getId());
+	}
+
+	@Test
+	public void ignoresSurroundingWhitespaceAndTrailingSlashes() {
+		AuthenticationRequest reference = IdxCommon.getAuthRequestReference("  " + HREF + "//\n");
+		assertEquals(HREF, reference.getHref());
+		assertEquals("QTAzbq1nZkB", reference.getId());
+	}
+
+	@Test
+	public void usesTheWholeValueWhenThereIsNoPath() {
+		AuthenticationRequest reference = IdxCommon.getAuthRequestReference("QTAzbq1nZkB");
+		assertEquals("QTAzbq1nZkB", reference.getHref());
+		assertEquals("QTAzbq1nZkB", reference.getId());
+	}
+
+	@Test
+	public void returnsNullForAMissingHref() {
+		assertNull(IdxCommon.getAuthRequestReference(null));
+		assertNull(IdxCommon.getAuthRequestReference(""));
+		assertNull(IdxCommon.getAuthRequestReference("   "));
+		assertNull(IdxCommon.getAuthRequestReference(" / "));
+	}
+}
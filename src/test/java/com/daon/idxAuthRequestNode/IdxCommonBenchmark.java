@@ -0,0 +1,56 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The IdxCommon helpers on the hot path of every token fetch and node visit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdxCommonBenchmark {
+
+	private Map<Object, Object> tokenForm;
+	private String authHref;
+	private String authHrefWithPort;
+
+	@Setup
+	public void setUp() {
+		tokenForm = new LinkedHashMap<>();
+		tokenForm.put("grant_type", "client_credentials");
+		tokenForm.put("scope", IdxCommon.IDX_TOKEN_SCOPE);
+		authHref = "https://idx.example.com/tenant1/IdentityXServices/rest/v1/authenticationRequests/QTAzbq1nZkB";
+		authHrefWithPort = "https://idx.example.com:8443/tenant1/IdentityXServices/rest/v1/authenticationRequests/QTAzbq1nZkB";
+	}
+
+	@Benchmark
+	public long buildFormDataFromMap() {
+		return IdxCommon.buildFormDataFromMap(tokenForm).contentLength();
+	}
+
+	@Benchmark
+	public String getServerName() {
+		return IdxCommon.getServerName(authHref);
+	}
+
+	@Benchmark
+	public String getServerNameWithPort() {
+		return IdxCommon.getServerName(authHrefWithPort);
+	}
+}
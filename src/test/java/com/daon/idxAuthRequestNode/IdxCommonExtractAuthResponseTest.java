@@ -0,0 +1,85 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Checks that the streaming extraction of the FIDO response gives the same result as the JSONObject tree
+ * parse IdxMobileValidateAuthRequestNode used before.
+ */
+public class IdxCommonExtractAuthResponseTest {
+
+	private static final String FIDO_RESPONSE = "[{\"header\":{\"upv\":{\"major\":1,\"minor\":1},\"op\":\"Auth\","
+			+ "\"appID\":\"https://idx.example.com/facets\",\"serverData\":\"c2VydmVyRGF0YQ\"},"
+			+ "\"fcParams\":\"eyJhcHBJRCI6Imh0dHBzOi8vaWR4In0\",\"assertions\":[{\"assertionScheme\":\"UAFV1TLV\","
+			+ "\"assertion\":\"Aj7cAAQ-jgALLgkARDAwNEUjMDAwMQ\"}]}]";
+
+	private static final String[] PAYLOADS = {
+			// What the mobile app submits
+			"{\"fidoAuthenticationResponse\":" + JSONObject.quote(FIDO_RESPONSE) + "}",
+			// Other properties, nested values and whitespace around the response
+			"  {\"device\":{\"os\":\"android\",\"versions\":[1,2,{\"x\":null}]},\"attempt\":2,\"ok\":true,"
+					+ "\"fidoAuthenticationResponse\" : " + JSONObject.quote(FIDO_RESPONSE) + ",\"trailing\":\"ignored\"}",
+			// Escaped and non-ASCII characters in the response
+			"{\"fidoAuthenticationResponse\":\"line\\nbreak \\\"quoted\\\" \\u00e9t\\u00e9 \\/ slash\"}",
+			// Raw FIDO response, e.g. posted from Postman
+			FIDO_RESPONSE,
+			"QUJDREVGRw",
+			"",
+			"   ",
+			// Wrapper without a usable response
+			"{}",
+			"{\"fidoAuthenticationResponse\":\"\"}",
+			"{\"fidoAuthenticationResponse\":null}",
+			"{\"fidoAuthenticationResponse\":42}",
+			"{\"fidoAuthenticationResponse\":{\"nested\":\"object\"}}",
+			"{\"fidoAuthenticationResponse\":[\"array\"]}",
+			"{\"other\":\"value\"}",
+			"{\"outer\":{\"fidoAuthenticationResponse\":\"only nested\"}}",
+			// Malformed JSON
+			"{\"fidoAuthenticationResponse\":",
+			"{not json",
+	};
+
+	@Test
+	public void matchesTheTreeParseOnRepresentativePayloads() {
+		for (String payload : PAYLOADS) {
+			assertEquals(payload, treeParse(payload), IdxCommon.extractAuthResponse(payload));
+		}
+	}
+
+	@Test
+	public void returnsTheWrappedResponse() {
+		assertEquals(FIDO_RESPONSE, IdxCommon.extractAuthResponse(PAYLOADS[0]));
+		assertEquals(FIDO_RESPONSE, IdxCommon.extractAuthResponse(PAYLOADS[1]));
+	}
+
+	/**
+	 * The extraction IdxMobileValidateAuthRequestNode did before it used IdxCommon.extractAuthResponse.
+	 */
+	private static String treeParse(String submitted) {
+		String test = null;
+		boolean isJsonOk = false;
+		JSONObject obj = null;
+		try {
+			obj = new JSONObject(submitted);
+		} catch (JSONException e) {
+			// Not a JSON object
+		}
+		if (obj != null) {
+			try {
+				test = obj.getString(IdxCommon.IDX_AUTH_RESPONSE_PROPERTY_NAME);
+				isJsonOk = true;
+			} catch (JSONException e) {
+				// No string property
+			}
+		}
+		if (test == null || test.isEmpty() || !isJsonOk) {
+			test = submitted;
+		}
+		return test;
+	}
+}
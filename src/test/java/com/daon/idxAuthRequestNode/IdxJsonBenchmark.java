@@ -0,0 +1,61 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.daon.identityx.rest.model.pojo.User;
+
+/**
+ * Writing the found user to shared state and reading it back in the later nodes, with IdxJson and, as the
+ * baseline, with the shared ObjectMapper the nodes used before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdxJsonBenchmark {
+
+	private User user;
+	private String userJson;
+
+	@Setup
+	public void setUp() throws Exception {
+		user = new User();
+		user.setId("QTAzbq1nZkB");
+		user.setHref("https://idx.example.com/tenant1/IdentityXServices/rest/v1/users/QTAzbq1nZkB");
+		user.setUserId("jane.doe@example.com");
+		userJson = IdxJson.writeUser(user);
+	}
+
+	@Benchmark
+	public String writeUser() throws Exception {
+		return IdxJson.writeUser(user);
+	}
+
+	@Benchmark
+	public User readUser() throws Exception {
+		return IdxJson.readUser(userJson);
+	}
+
+	@Benchmark
+	public String writeUserObjectMapper() throws Exception {
+		return IdxCommon.objectMapper.writeValueAsString(user);
+	}
+
+	@Benchmark
+	public User readUserObjectMapper() throws Exception {
+		return IdxCommon.objectMapper.readValue(userJson, User.class);
+	}
+}
@@ -0,0 +1,197 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs whole journeys from many threads against an {@link IdxStandIn}, and reports the throughput, the p50
+ * and p99 journey latency and the number of remote calls per journey. The journey is picked with
+ * {@code --journey}:
+ * <ul>
+ * <li>{@code login}: Check Enrollment Status, Auth Request Initiator and Auth Request Decision until the
+ * request is approved</li>
+ * <li>{@code mobile}: Check Enrollment Status, Mobile Auth Request and Mobile Auth Request Validate</li>
+ * <li>{@code enroll}: Check Enrollment Status for a user the tenant does not have, then Sponsor User until
+ * the sponsorship is completed</li>
+ * </ul>
+ *
+ * Run it with {@code mvn -P load verify}; options are passed with {@code -Dload.args="..."} as
+ * {@code --name=value}, see {@link #OPTIONS}. Warm-up logins are run first and left out of the report.
+ */
+public final class IdxLoadDriver {
+
+	private static final Map<String, String> OPTIONS = new LinkedHashMap<>();
+
+	static {
+		OPTIONS.put("journey", "login");
+		OPTIONS.put("users", "1000");
+		OPTIONS.put("logins", "10000");
+		OPTIONS.put("warmup", "1000");
+		OPTIONS.put("concurrency", "32");
+		OPTIONS.put("latencyMs", "0");
+		OPTIONS.put("jitterMs", "0");
+		OPTIONS.put("errorRate", "0");
+		OPTIONS.put("approvalDelayMs", "0");
+		OPTIONS.put("pollMs", "100");
+		OPTIONS.put("timeoutMs", "60000");
+	}
+
+	private IdxLoadDriver() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		if (options == null) {
+			System.out.println("Options, with their defaults:");
+			OPTIONS.forEach((name, value) -> System.out.println("  --" + name + "=" + value));
+			return;
+		}
+		int users = Integer.parseInt(options.get("users"));
+		int logins = Integer.parseInt(options.get("logins"));
+		int warmup = Integer.parseInt(options.get("warmup"));
+		int concurrency = Integer.parseInt(options.get("concurrency"));
+		long pollMillis = Long.parseLong(options.get("pollMs"));
+		long timeoutMillis = Long.parseLong(options.get("timeoutMs"));
+		String journeyName = options.get("journey");
+		if (!Arrays.asList("login", "mobile", "enroll").contains(journeyName)) {
+			System.out.println("Unknown journey " + journeyName + ", use login, mobile or enroll");
+			return;
+		}
+
+		try (IdxStandIn standIn = IdxStandIn.start(users)) {
+			standIn.setLatency(Long.parseLong(options.get("latencyMs")), Long.parseLong(options.get("jitterMs")))
+					.setErrorRate(Double.parseDouble(options.get("errorRate")))
+					.setApprovalDelay(Long.parseLong(options.get("approvalDelayMs")));
+			Journey journey = journey(new IdxStandInJourney(standIn), journeyName, users, pollMillis, timeoutMillis);
+			System.out.println("Options: " + options);
+
+			run(journey, warmup, concurrency);
+			standIn.resetCallCounts();
+			long start = System.nanoTime();
+			Result result = run(journey, logins, concurrency);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Map<String, Long> calls = standIn.getCallCounts();
+			long callCount = standIn.getCallCount();
+
+			long[] latencies = result.latencies;
+			Arrays.sort(latencies);
+			System.out.printf("Journeys: %d %s in %.1f s, outcomes %s%n", logins, journeyName, seconds, result.getOutcomes());
+			System.out.printf("Throughput: %.1f journeys/s%n", logins / seconds);
+			System.out.printf("Journey latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", percentile(latencies, 50),
+					percentile(latencies, 99), latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+			System.out.printf("Remote calls per journey: %.2f%n", (double) callCount / logins);
+			calls.forEach((call, count) -> System.out.printf("  %-30s %.2f%n", call, (double) count / logins));
+		}
+		// The nodes' pools and pollers run on threads of their own
+		System.exit(0);
+	}
+
+	/**
+	 * @return the journey to run for each login number
+	 */
+	private static Journey journey(IdxStandInJourney journeys, String name, int users, long pollMillis,
+			long timeoutMillis) {
+		switch (name) {
+		case "mobile":
+			return login -> journeys.mobileLogin(IdxStandIn.userId(login % users));
+		case "enroll":
+			// Every enrollment is for a new user, the warm-up ones included
+			AtomicInteger enrollments = new AtomicInteger();
+			return login -> journeys.enroll("new" + enrollments.getAndIncrement(), pollMillis, timeoutMillis);
+		default:
+			return login -> journeys.login(IdxStandIn.userId(login % users), pollMillis, timeoutMillis);
+		}
+	}
+
+	private static Result run(Journey journey, int logins, int concurrency) throws InterruptedException {
+		Result result = new Result(logins);
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+		try {
+			for (int i = 0; i < concurrency; i++) {
+				pool.execute(() -> {
+					int login;
+					while ((login = next.getAndIncrement()) < logins) {
+						long start = System.nanoTime();
+						String outcome;
+						try {
+							outcome = journey.run(login);
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+							return;
+						} catch (RuntimeException ex) {
+							outcome = ex.getClass().getSimpleName();
+						}
+						result.latencies[login] = System.nanoTime() - start;
+						result.outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+		}
+		pool.awaitTermination(1, TimeUnit.DAYS);
+		return result;
+	}
+
+	/**
+	 * @return the percentile of the sorted latencies, in milliseconds
+	 */
+	private static double percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+
+	/**
+	 * @return the options with their defaults filled in, or null when help was asked for
+	 */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new LinkedHashMap<>(OPTIONS);
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			String name = equals < 0 ? arg : arg.substring(0, equals);
+			if (!name.startsWith("--") || !OPTIONS.containsKey(name.substring(2)) || equals < 0) {
+				if (!name.equals("--help")) {
+					System.out.println("Unknown option " + arg);
+				}
+				return null;
+			}
+			options.put(name.substring(2), arg.substring(equals + 1));
+		}
+		return options;
+	}
+
+	@FunctionalInterface
+	private interface Journey {
+		/**
+		 * @return the outcome that ended the journey
+		 */
+		String run(int login) throws InterruptedException;
+	}
+
+	private static final class Result {
+		final long[] latencies;
+		final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+		Result(int logins) {
+			this.latencies = new long[logins];
+		}
+
+		Map<String, Long> getOutcomes() {
+			Map<String, Long> counts = new TreeMap<>();
+			outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.forgerock.openam.auth.node.api.NodeProcessException;
+import org.junit.Test;
+
+/**
+ * Runs with the short lookup timeout configured for surefire in the pom.
+ */
+public class IdxLookupExecutorTest {
+
+	@Test
+	public void timeoutLeavesASharedLookupRunning() throws Exception {
+		CompletableFuture<String> shared = new CompletableFuture<>();
+		try {
+			IdxLookupExecutor.await(shared, IdxTenant.OP_POLICY_LIST);
+			fail("Expected the wait to time out");
+		} catch (NodeProcessException expected) {
+			// The other journeys waiting for the lookup still get its result
+		}
+		assertFalse(shared.isCancelled());
+		shared.complete("policy");
+		assertEquals("policy", IdxLookupExecutor.await(shared, IdxTenant.OP_POLICY_LIST));
+	}
+
+	@Test(expected = NodeProcessException.class)
+	public void cancelledLookupFailsTheNode() throws Exception {
+		CompletableFuture<String> lookup = new CompletableFuture<>();
+		lookup.cancel(false);
+		IdxLookupExecutor.await(lookup, IdxTenant.OP_APPLICATION_LIST);
+	}
+}
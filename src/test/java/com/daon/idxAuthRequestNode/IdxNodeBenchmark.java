@@ -0,0 +1,187 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One visit of each login, enrollment and mobile login node, against an in-process IdentityX stand-in, so the
+ * numbers include the SDK, the connection pool and the caches but not a real network. Reported as node visits
+ * per second across the benchmark threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class IdxNodeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class StandIn {
+
+		@Param({ "1000" })
+		public int users;
+
+		IdxStandIn standIn;
+		IdxStandInJourney journey;
+		JsonValue authorizedSharedState;
+		JsonValue authorizedTransientState;
+		JsonValue sponsoredSharedState;
+		JsonValue sponsoredTransientState;
+
+		@Setup
+		public void start() throws Exception {
+			standIn = IdxStandIn.start(users);
+			journey = new IdxStandInJourney(standIn);
+
+			// One login up to the status check, for the status benchmark
+			authorizedSharedState = IdxStandInJourney.newSharedState(IdxStandIn.userId(0));
+			authorizedTransientState = IdxStandInJourney.newTransientState();
+			expect("TRUE_OUTCOME", journey.checkEnrollmentStatus
+					.process(journey.newContext(authorizedSharedState, authorizedTransientState)));
+			expect("NEXT_OUTCOME", journey.authRequest
+					.process(journey.newContext(authorizedSharedState, authorizedTransientState)));
+
+			// One enrollment up to its first poll, for the sponsorship status benchmark
+			sponsoredSharedState = IdxStandInJourney.newSharedState("sponsored");
+			sponsoredTransientState = IdxStandInJourney.newTransientState();
+			expect("FALSE_OUTCOME", journey.checkEnrollmentStatus
+					.process(journey.newContext(sponsoredSharedState, sponsoredTransientState)));
+			expect(null, journey.sponsorUser.process(journey.newContext(sponsoredSharedState, sponsoredTransientState)));
+		}
+
+		@TearDown
+		public void stop() {
+			standIn.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Login {
+		int next;
+		JsonValue sharedState;
+		JsonValue transientState;
+
+		/**
+		 * A login that has been through Check Enrollment Status, for the auth request benchmark.
+		 */
+		@Setup(Level.Invocation)
+		public void enrolled(StandIn standIn) {
+			sharedState = IdxStandInJourney.newSharedState(IdxStandIn.userId(next++ % standIn.users));
+			transientState = IdxStandInJourney.newTransientState();
+			standIn.journey.checkEnrollmentStatus.process(standIn.journey.newContext(sharedState, transientState));
+		}
+	}
+
+	/**
+	 * A login that has been through Check Enrollment Status and the first visit of Mobile Auth Request, and
+	 * has the app's response, for the mobile validation benchmark.
+	 */
+	@State(Scope.Thread)
+	public static class MobileLogin {
+		int next;
+		JsonValue sharedState;
+		JsonValue transientState;
+
+		@Setup(Level.Invocation)
+		public void answered(StandIn standIn) {
+			IdxStandInJourney journey = standIn.journey;
+			sharedState = IdxStandInJourney.newSharedState(IdxStandIn.userId(next++ % standIn.users));
+			transientState = IdxStandInJourney.newTransientState();
+			journey.checkEnrollmentStatus.process(journey.newContext(sharedState, transientState));
+			journey.mobileAuthRequest.process(journey.newContext(sharedState, transientState));
+			journey.mobileAuthRequest.process(
+					journey.newContext(sharedState, transientState, IdxStandInJourney.mobileResponse()));
+		}
+	}
+
+	/**
+	 * A username the tenant does not have, through Check Enrollment Status, for the sponsorship benchmark.
+	 */
+	@State(Scope.Thread)
+	public static class Unenrolled {
+		int next;
+		JsonValue sharedState;
+		JsonValue transientState;
+
+		@Setup(Level.Invocation)
+		public void checked(StandIn standIn) {
+			sharedState = IdxStandInJourney.newSharedState("unenrolled-" + Thread.currentThread().getId() + "-" + next++);
+			transientState = IdxStandInJourney.newTransientState();
+			standIn.journey.checkEnrollmentStatus.process(standIn.journey.newContext(sharedState, transientState));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Username {
+		int next;
+	}
+
+	@Benchmark
+	public Action checkEnrollmentStatus(StandIn standIn, Username username) {
+		JsonValue sharedState = IdxStandInJourney.newSharedState(IdxStandIn.userId(username.next++ % standIn.users));
+		return standIn.journey.checkEnrollmentStatus
+				.process(standIn.journey.newContext(sharedState, IdxStandInJourney.newTransientState()));
+	}
+
+	@Benchmark
+	public Action authRequest(StandIn standIn, Login login) {
+		return standIn.journey.authRequest.process(standIn.journey.newContext(login.sharedState, login.transientState));
+	}
+
+	@Benchmark
+	public Action authStatus(StandIn standIn) {
+		return standIn.journey.authStatus
+				.process(standIn.journey.newContext(standIn.authorizedSharedState, standIn.authorizedTransientState));
+	}
+
+	@Benchmark
+	public Action sponsorUser(StandIn standIn, Unenrolled unenrolled) {
+		return standIn.journey.sponsorUser
+				.process(standIn.journey.newContext(unenrolled.sharedState, unenrolled.transientState));
+	}
+
+	@Benchmark
+	public Action sponsorUserStatus(StandIn standIn) {
+		return standIn.journey.sponsorUser
+				.process(standIn.journey.newContext(standIn.sponsoredSharedState, standIn.sponsoredTransientState));
+	}
+
+	@Benchmark
+	public Action mobileAuthRequest(StandIn standIn, Login login) {
+		return standIn.journey.mobileAuthRequest
+				.process(standIn.journey.newContext(login.sharedState, login.transientState));
+	}
+
+	@Benchmark
+	public Action mobileValidate(StandIn standIn, MobileLogin login) {
+		return standIn.journey.mobileValidate
+				.process(standIn.journey.newContext(login.sharedState, login.transientState));
+	}
+
+	/**
+	 * @param outcome the expected outcome, null when the node should send callbacks
+	 */
+	private static void expect(String outcome, Action action) {
+		if (!Objects.equals(outcome, action.outcome)) {
+			throw new IllegalStateException("Expected " + outcome + " from the stand-in but got " + action.outcome);
+		}
+	}
+}
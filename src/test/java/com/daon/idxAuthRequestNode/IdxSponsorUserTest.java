@@ -0,0 +1,58 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IdxSponsorUserTest {
+
+	private static final long POLLING_WAIT = 10_000L;
+	private static final long BUDGET = 300_000L;
+	private static final long FAST_WINDOW = 60_000L;
+
+	/**
+	 * Without adaptive polling the node polls 30 times, 10 seconds apart.
+	 */
+	private static final int BASELINE_POLLS = 30;
+
+	@Test
+	public void defaultScheduleMakesNoMorePollsThanTheBaseline() {
+		for (double random : new double[] { 0, 0.5, 0.999 }) {
+			int polls = countPolls(POLLING_WAIT, random);
+			assertTrue(polls + " polls with jitter " + random, polls <= BASELINE_POLLS);
+		}
+	}
+
+	@Test
+	public void shorterFastIntervalPollsMoreOftenDuringTheWindow() {
+		assertEquals(2_000L, IdxSponsorUser.adaptiveWait(0, 0, BUDGET, 2_000L, FAST_WINDOW, POLLING_WAIT, 0));
+		// Backs off to the polling wait interval after the window
+		assertEquals(POLLING_WAIT,
+				IdxSponsorUser.adaptiveWait(FAST_WINDOW, 10, BUDGET, 2_000L, FAST_WINDOW, POLLING_WAIT, 0));
+		assertTrue(countPolls(2_000L, 0.5) > BASELINE_POLLS);
+	}
+
+	@Test
+	public void stopsWhenTheBudgetIsUsedUp() {
+		assertEquals(0, IdxSponsorUser.adaptiveWait(BUDGET, 0, BUDGET, POLLING_WAIT, FAST_WINDOW, POLLING_WAIT, 0));
+		assertEquals(1_000L,
+				IdxSponsorUser.adaptiveWait(BUDGET - 1_000L, 0, BUDGET, POLLING_WAIT, FAST_WINDOW, POLLING_WAIT, 0.9));
+	}
+
+	private static int countPolls(long fastInterval, double random) {
+		long elapsed = 0;
+		int attempt = 0;
+		int polls = 0;
+		long wait;
+		while ((wait = IdxSponsorUser.adaptiveWait(elapsed, attempt, BUDGET, fastInterval, FAST_WINDOW, POLLING_WAIT,
+				random)) > 0) {
+			if (elapsed >= FAST_WINDOW) {
+				attempt++;
+			}
+			elapsed += wait;
+			polls++;
+		}
+		return polls;
+	}
+}
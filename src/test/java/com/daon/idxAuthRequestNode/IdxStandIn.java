@@ -0,0 +1,384 @@
+package com.daon.idxAuthRequestNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for an IdentityX tenant and AM's OAuth2 token endpoint, for benchmarks and load tests.
+ *
+ * The tenant is served under {@link #getBaseURL()} and has the users {@code user0} to {@code user<n-1>}, one
+ * active FIDO registration policy, which the authentication nodes use as well, and one application. Authentication requests and sponsorships are kept in memory. The token
+ * endpoint is served on AM's own path, so nodes given a request context for {@link #getServerUrl()} fetch
+ * their tokens here. Collections are returned as {@code {"items": [...]}} and resources carry
+ * their {@code id} and {@code href}, which is what the IdentityX SDK repositories read.
+ *
+ * The behaviour of the tenant can be changed while it runs:
+ * <ul>
+ * <li>latency, plus up to a given jitter, is added to every response</li>
+ * <li>the error rate is the share of requests answered with HTTP 503</li>
+ * <li>the approval delay is how long after creation an authentication request is approved by the simulated
+ * user, and a sponsorship completed; a negative delay leaves them pending</li>
+ * </ul>
+ * Every request is counted per method and collection, so a test can tell how many remote calls a login cost.
+ */
+final class IdxStandIn implements Closeable {
+
+	static final String TENANT_PATH = "/tenant/IdentityXServices/rest/v1";
+	static final String TOKEN_PATH = "/oauth2/alpha/access_token";
+	static final String POLICY_ID = "standin-policy";
+	static final String APPLICATION_ID = "standin-app";
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int users;
+	private final Map<String, Map<String, Object>> authRequests = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Object>> sponsorships = new ConcurrentHashMap<>();
+	private final Map<String, Long> createdAt = new ConcurrentHashMap<>();
+	private final AtomicLong tokenCount = new AtomicLong();
+	private final Map<String, LongAdder> callCounts = new ConcurrentHashMap<>();
+	private final LongAdder callCount = new LongAdder();
+
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile double errorRate;
+	private volatile long approvalDelayMillis;
+
+	private IdxStandIn(int users) throws IOException {
+		this.users = users;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "idx-standin");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext(TOKEN_PATH, exchange -> handle(exchange, "POST token", this::handleToken));
+		server.createContext(TENANT_PATH, exchange -> handle(exchange, null, this::handleTenant));
+	}
+
+	/**
+	 * Starts a stand-in on a free local port.
+	 *
+	 * @param users the number of enrolled users
+	 */
+	static IdxStandIn start(int users) throws IOException {
+		IdxStandIn standIn = new IdxStandIn(users);
+		standIn.server.start();
+		return standIn;
+	}
+
+	static String userId(int index) {
+		return "user" + index;
+	}
+
+	/**
+	 * @return the URL to use as AM's server URL in request contexts
+	 */
+	String getServerUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the IdentityX base URL of the tenant
+	 */
+	String getBaseURL() {
+		return getServerUrl() + TENANT_PATH;
+	}
+
+	IdxStandIn setLatency(long millis, long jitterMillis) {
+		this.latencyMillis = millis;
+		this.latencyJitterMillis = jitterMillis;
+		return this;
+	}
+
+	IdxStandIn setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	IdxStandIn setApprovalDelay(long millis) {
+		this.approvalDelayMillis = millis;
+		return this;
+	}
+
+	long getTokenCount() {
+		return tokenCount.get();
+	}
+
+	/**
+	 * @return the number of requests served, including failed ones
+	 */
+	long getCallCount() {
+		return callCount.sum();
+	}
+
+	/**
+	 * @return the number of requests served per method and collection, for example {@code GET users}
+	 */
+	Map<String, Long> getCallCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		callCounts.forEach((call, count) -> counts.put(call, count.sum()));
+		return counts;
+	}
+
+	void resetCallCounts() {
+		callCounts.clear();
+		callCount.reset();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Counts the request and applies the configured latency and error rate before handing it on.
+	 */
+	private void handle(HttpExchange exchange, String call, Handler handler) throws IOException {
+		if (call == null) {
+			String path = exchange.getRequestURI().getPath().substring(TENANT_PATH.length());
+			int end = path.indexOf('/', 1);
+			call = exchange.getRequestMethod() + " " + (end < 0 ? path.substring(1) : path.substring(1, end));
+		}
+		callCount.increment();
+		callCounts.computeIfAbsent(call, key -> new LongAdder()).increment();
+
+		long latency = latencyMillis;
+		if (latencyJitterMillis > 0) {
+			latency += ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1);
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			send(exchange, 503, error("Error injected by the stand-in"));
+			return;
+		}
+		handler.handle(exchange);
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		Map<String, Object> token = new LinkedHashMap<>();
+		token.put("access_token", "standin-" + tokenCount.incrementAndGet());
+		token.put("token_type", "Bearer");
+		token.put("expires_in", 3600);
+		send(exchange, 200, token);
+	}
+
+	private void handleTenant(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().substring(TENANT_PATH.length());
+		String method = exchange.getRequestMethod();
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		if (path.equals("/users") && method.equals("GET")) {
+			send(exchange, 200, items(listUsers(query)));
+		} else if (path.equals("/policies") && method.equals("GET")) {
+			boolean match = query.getOrDefault("policyId", POLICY_ID).equals(POLICY_ID);
+			send(exchange, 200, items(match ? Collections.singletonList(policy()) : Collections.emptyList()));
+		} else if (path.equals("/applications") && method.equals("GET")) {
+			boolean match = query.getOrDefault("applicationId", APPLICATION_ID).equals(APPLICATION_ID);
+			send(exchange, 200, items(match ? Collections.singletonList(application()) : Collections.emptyList()));
+		} else if (path.equals("/authenticationRequests") && method.equals("POST")) {
+			send(exchange, 201, createAuthRequest(readBody(exchange)));
+		} else if (path.startsWith("/authenticationRequests/")) {
+			String id = path.substring("/authenticationRequests/".length());
+			Map<String, Object> request = authRequests.get(id);
+			if (request == null) {
+				send(exchange, 404, error("Authentication request not found"));
+			} else if (method.equals("GET")) {
+				send(exchange, 200, approveIfDue(id, request, "COMPLETED_SUCCESSFUL"));
+			} else {
+				send(exchange, 200, updateAuthRequest(request, readBody(exchange)));
+			}
+		} else if (path.equals("/sponsorships") && method.equals("POST")) {
+			send(exchange, 201, createSponsorship(readBody(exchange)));
+		} else if (path.startsWith("/sponsorships/") && method.equals("GET")) {
+			String id = path.substring("/sponsorships/".length());
+			Map<String, Object> sponsorship = sponsorships.get(id);
+			if (sponsorship == null) {
+				send(exchange, 404, error("Sponsorship not found"));
+			} else {
+				send(exchange, 200, approveIfDue(id, sponsorship, "COMPLETED"));
+			}
+		} else {
+			send(exchange, 404, error("Not served by the stand-in: " + method + " " + path));
+		}
+	}
+
+	private List<Map<String, Object>> listUsers(Map<String, String> query) {
+		String userId = query.get("userId");
+		if (userId != null) {
+			int index = userIndex(userId);
+			return index < 0 ? Collections.emptyList() : Collections.singletonList(user(index));
+		}
+		int offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+		int limit = Integer.parseInt(query.getOrDefault("limit", String.valueOf(users)));
+		List<Map<String, Object>> page = new ArrayList<>();
+		for (int i = offset; i < Math.min(users, offset + limit); i++) {
+			page.add(user(i));
+		}
+		return page;
+	}
+
+	private int userIndex(String userId) {
+		if (!userId.startsWith("user")) {
+			return -1;
+		}
+		try {
+			int index = Integer.parseInt(userId.substring(4));
+			return index >= 0 && index < users ? index : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	private Map<String, Object> user(int index) {
+		Map<String, Object> user = resource("users", "U" + index);
+		user.put("userId", userId(index));
+		user.put("status", "ACTIVE");
+		return user;
+	}
+
+	private Map<String, Object> policy() {
+		Map<String, Object> policy = resource("policies", "P1");
+		policy.put("policyId", POLICY_ID);
+		policy.put("status", "ACTIVE");
+		// Sponsor User reads the type to build the QR code
+		policy.put("type", "FR");
+		return policy;
+	}
+
+	private Map<String, Object> application() {
+		Map<String, Object> application = resource("applications", "A1");
+		application.put("applicationId", APPLICATION_ID);
+		return application;
+	}
+
+	private Map<String, Object> createAuthRequest(Map<String, Object> body) {
+		String id = UUID.randomUUID().toString().replace("-", "");
+		Map<String, Object> request = new ConcurrentHashMap<>(body);
+		request.putAll(resource("authenticationRequests", id));
+		request.put("status", "PENDING");
+		createdAt.put(id, System.currentTimeMillis());
+		authRequests.put(id, request);
+		return request;
+	}
+
+	private Map<String, Object> createSponsorship(Map<String, Object> body) {
+		String id = UUID.randomUUID().toString().replace("-", "");
+		Map<String, Object> sponsorship = new ConcurrentHashMap<>(body);
+		sponsorship.putAll(resource("sponsorships", id));
+		sponsorship.put("sponsorshipToken", "ST" + id.substring(0, 12));
+		sponsorship.put("status", "PENDING");
+		createdAt.put(id, System.currentTimeMillis());
+		sponsorships.put(id, sponsorship);
+		return sponsorship;
+	}
+
+	/**
+	 * Completes a pending resource once the approval delay has passed since it was created.
+	 */
+	private Map<String, Object> approveIfDue(String id, Map<String, Object> resource, String completedStatus) {
+		long delay = approvalDelayMillis;
+		if (delay >= 0 && "PENDING".equals(resource.get("status"))
+				&& System.currentTimeMillis() - createdAt.getOrDefault(id, 0L) >= delay) {
+			resource.put("status", completedStatus);
+		}
+		return resource;
+	}
+
+	private Map<String, Object> updateAuthRequest(Map<String, Object> request, Map<String, Object> body) {
+		Object response = body.get("fidoAuthenticationResponse");
+		if (response != null) {
+			request.put("fidoAuthenticationResponse", response);
+			request.put("status", "COMPLETED_SUCCESSFUL");
+		}
+		return request;
+	}
+
+	private Map<String, Object> resource(String collection, String id) {
+		Map<String, Object> resource = new LinkedHashMap<>();
+		resource.put("id", id);
+		resource.put("href", getBaseURL() + "/" + collection + "/" + id);
+		return resource;
+	}
+
+	private static Map<String, Object> items(List<Map<String, Object>> items) {
+		return Collections.singletonMap("items", items);
+	}
+
+	private static Map<String, Object> error(String message) {
+		return Collections.singletonMap("message", message);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] body = in.readAllBytes();
+			return body.length == 0 ? new HashMap<>() : mapper.readValue(body, Map.class);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) {
+			return query;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return query;
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange exchange) throws IOException;
+	}
+
+	private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+		byte[] json = mapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		try {
+			exchange.sendResponseHeaders(status, json.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(json);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.TextInputCallback;
+import javax.security.auth.callback.TextOutputCallback;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.SharedStateConstants;
+import org.forgerock.openam.auth.node.api.TreeContext;
+
+/**
+ * The nodes of the IdentityX journeys, configured against an {@link IdxStandIn}: the login journey, Check
+ * Enrollment Status, Auth Request Initiator and Auth Request Decision; the enrollment journey, Check
+ * Enrollment Status and Sponsor User; and the mobile login journey, Check Enrollment Status, Mobile Auth
+ * Request and Mobile Auth Request Validate.
+ */
+final class IdxStandInJourney {
+
+	static final String CLIENT_ID = "standin-client";
+	static final String CLIENT_SECRET = "standin-secret";
+
+	final IdxCheckEnrollmentStatus checkEnrollmentStatus;
+	final IdxAuthRequestNode authRequest;
+	final IdxAuthStatusNode authStatus;
+	final IdxSponsorUser sponsorUser;
+	final IdxMobileAuthRequestNode mobileAuthRequest;
+	final IdxMobileValidateAuthRequestNode mobileValidate;
+
+	private final IdxStandIn standIn;
+
+	IdxStandInJourney(IdxStandIn standIn) {
+		this.standIn = standIn;
+		this.checkEnrollmentStatus = new IdxCheckEnrollmentStatus(new CheckEnrollmentStatusConfig(standIn.getBaseURL()));
+		this.authRequest = new IdxAuthRequestNode(new IdxAuthRequestNode.Config() {
+			@Override
+			public String policyName() {
+				return IdxStandIn.POLICY_ID;
+			}
+
+			@Override
+			public String applicationId() {
+				return IdxStandIn.APPLICATION_ID;
+			}
+		});
+		this.authStatus = new IdxAuthStatusNode(new IdxAuthStatusNode.Config() {
+		});
+		this.sponsorUser = new IdxSponsorUser(new IdxSponsorUser.Config() {
+			@Override
+			public String enrollmentPolicyName() {
+				return IdxStandIn.POLICY_ID;
+			}
+
+			@Override
+			public String applicationId() {
+				return IdxStandIn.APPLICATION_ID;
+			}
+		});
+		this.mobileAuthRequest = new IdxMobileAuthRequestNode(new IdxMobileAuthRequestNode.Config() {
+			@Override
+			public String policyName() {
+				return IdxStandIn.POLICY_ID;
+			}
+
+			@Override
+			public String applicationId() {
+				return IdxStandIn.APPLICATION_ID;
+			}
+		});
+		this.mobileValidate = new IdxMobileValidateAuthRequestNode(new IdxMobileValidateAuthRequestNode.Config() {
+		});
+	}
+
+	static JsonValue newSharedState(String username) {
+		return json(object(field(SharedStateConstants.USERNAME, username)));
+	}
+
+	static JsonValue newTransientState() {
+		return json(object());
+	}
+
+	/**
+	 * @return a context for one node visit; pass the same states to every node of one login
+	 */
+	TreeContext newContext(JsonValue sharedState, JsonValue transientState) {
+		return newContext(sharedState, transientState, Collections.emptyList());
+	}
+
+	/**
+	 * @return a context for a node visit that returns the callbacks the node sent on its previous visit
+	 */
+	TreeContext newContext(JsonValue sharedState, JsonValue transientState, List<? extends Callback> callbacks) {
+		ExternalRequestContext request = new ExternalRequestContext.Builder().serverUrl(standIn.getServerUrl()).build();
+		return new TreeContext(sharedState, transientState, request, callbacks, Optional.empty());
+	}
+
+	/**
+	 * @return the callbacks the mobile app returns to Mobile Auth Request, carrying its FIDO response
+	 */
+	static List<Callback> mobileResponse() {
+		TextInputCallback response = new TextInputCallback("Please provide the Daon Fido Response", "{}");
+		response.setText("standin-fido-response");
+		return Arrays.asList(response, new TextOutputCallback(TextOutputCallback.INFORMATION, "{}"));
+	}
+
+	/**
+	 * Runs one login through the journey, visiting Auth Request Decision again after a pause for as long as
+	 * the authentication request is pending.
+	 *
+	 * @return the outcome that ended the login: the outcome of Auth Request Decision, or the outcome of the
+	 *         node that left the journey early
+	 */
+	String login(String username, long pollMillis, long timeoutMillis) throws InterruptedException {
+		JsonValue sharedState = newSharedState(username);
+		JsonValue transientState = newTransientState();
+
+		Action action = checkEnrollmentStatus.process(newContext(sharedState, transientState));
+		if (!IdxCheckEnrollmentStatus.IdxCheckEnrollmentStatusOutcome.TRUE_OUTCOME.name().equals(action.outcome)) {
+			return action.outcome;
+		}
+		action = authRequest.process(newContext(sharedState, transientState));
+		if (!IdxAuthRequestNode.IdxAuthRequestOutcome.NEXT_OUTCOME.name().equals(action.outcome)) {
+			return action.outcome;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			action = authStatus.process(newContext(sharedState, transientState));
+			if (!IdxAuthStatusNode.IdxAuthStatusOutcome.PENDING_OUTCOME.name().equals(action.outcome)
+					|| System.currentTimeMillis() >= deadline) {
+				return action.outcome;
+			}
+			Thread.sleep(pollMillis);
+		}
+	}
+
+	/**
+	 * Runs one enrollment through the journey: Check Enrollment Status for a user the tenant does not have,
+	 * then Sponsor User, visited again after a pause for as long as the sponsorship is pending.
+	 *
+	 * @return the outcome that ended the enrollment, or PENDING if it was still pending at the timeout
+	 */
+	String enroll(String username, long pollMillis, long timeoutMillis) throws InterruptedException {
+		JsonValue sharedState = newSharedState(username);
+		JsonValue transientState = newTransientState();
+
+		Action action = checkEnrollmentStatus.process(newContext(sharedState, transientState));
+		if (!IdxCheckEnrollmentStatus.IdxCheckEnrollmentStatusOutcome.FALSE_OUTCOME.name().equals(action.outcome)) {
+			return action.outcome;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			// The node sends its QR code and polling wait without an outcome while the sponsorship is pending
+			action = sponsorUser.process(newContext(sharedState, transientState));
+			if (action.outcome != null) {
+				return action.outcome;
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				return "PENDING";
+			}
+			Thread.sleep(pollMillis);
+		}
+	}
+
+	/**
+	 * Runs one login through the mobile journey, with the app answering the authentication request as soon
+	 * as Mobile Auth Request sends it.
+	 *
+	 * @return the outcome of Mobile Auth Request Validate, or of the node that left the journey early
+	 */
+	String mobileLogin(String username) {
+		JsonValue sharedState = newSharedState(username);
+		JsonValue transientState = newTransientState();
+
+		Action action = checkEnrollmentStatus.process(newContext(sharedState, transientState));
+		if (!IdxCheckEnrollmentStatus.IdxCheckEnrollmentStatusOutcome.TRUE_OUTCOME.name().equals(action.outcome)) {
+			return action.outcome;
+		}
+		action = mobileAuthRequest.process(newContext(sharedState, transientState));
+		if (action.outcome != null) {
+			return action.outcome;
+		}
+		action = mobileAuthRequest.process(newContext(sharedState, transientState, mobileResponse()));
+		if (!IdxMobileAuthRequestNode.IdxMobileAuthRequestNodeOutcome.NEXT_OUTCOME.name().equals(action.outcome)) {
+			return action.outcome;
+		}
+		return mobileValidate.process(newContext(sharedState, transientState)).outcome;
+	}
+
+	private static final class CheckEnrollmentStatusConfig implements IdxCheckEnrollmentStatus.Config {
+		private final String baseURL;
+
+		CheckEnrollmentStatusConfig(String baseURL) {
+			this.baseURL = baseURL;
+		}
+
+		@Override
+		public String clientID() {
+			return CLIENT_ID;
+		}
+
+		@Override
+		public String clientSecret() {
+			return CLIENT_SECRET;
+		}
+
+		@Override
+		public String baseURL() {
+			return baseURL;
+		}
+
+		@Override
+		public String userIdAttribute() {
+			return null;
+		}
+
+		@Override
+		public String jwtSigningKey() {
+			return null;
+		}
+
+		@Override
+		public String jwtKeyId() {
+			return null;
+		}
+
+		@Override
+		public String jwtIssuer() {
+			return null;
+		}
+
+		@Override
+		public String jwtAudience() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.daon.idxAuthRequestNode;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tenant lookups from many login threads at once, as every node does on every visit. The tenants are
+ * created during setup, so this measures the lookup and the contention on it, not the pool creation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class IdxTenantRegistryBenchmark {
+
+	@Param({ "1", "8" })
+	public int tenants;
+
+	private String[] baseURLs;
+	private IdxTenant.PoolSettings settings;
+
+	@Setup
+	public void setUp() throws Exception {
+		settings = IdxTenant.PoolSettings.DEFAULT;
+		baseURLs = new String[tenants];
+		for (int i = 0; i < tenants; i++) {
+			baseURLs[i] = "https://idx" + i + ".example.com/tenant/IdentityXServices/rest/v1";
+			IdxTenantRepoFactoryRegistry.getTenant(baseURLs[i], settings);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public IdxTenant getTenant(Cursor cursor) throws Exception {
+		String baseURL = baseURLs[cursor.next++ % baseURLs.length];
+		return IdxTenantRepoFactoryRegistry.getTenant(baseURL);
+	}
+
+	@Benchmark
+	public IdxTenant getTenantWithSettings(Cursor cursor) throws Exception {
+		String baseURL = baseURLs[cursor.next++ % baseURLs.length];
+		return IdxTenantRepoFactoryRegistry.getTenant(baseURL, settings);
+	}
+}
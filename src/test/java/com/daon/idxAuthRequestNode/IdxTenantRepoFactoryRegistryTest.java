@@ -0,0 +1,61 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs with the short settings change period configured for surefire in the pom.
+ */
+public class IdxTenantRepoFactoryRegistryTest {
+
+	private static final String BASE_URL = "https://registry.test/tenant/IdentityXServices/rest/v1";
+
+	private static final IdxTenant.PoolSettings SETTINGS = new IdxTenant.PoolSettings(1000, 10, 10, 0, 60000, 2000);
+	private static final IdxTenant.PoolSettings OTHER_SETTINGS = new IdxTenant.PoolSettings(1000, 20, 20, 0, 60000, 2000);
+
+	@After
+	public void clear() {
+		IdxTenantRepoFactoryRegistry.clear();
+	}
+
+	@Test
+	public void equivalentURLsShareOneTenant() throws Exception {
+		IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, SETTINGS);
+		assertSame(tenant, IdxTenantRepoFactoryRegistry.getTenant(" HTTPS://Registry.test/tenant/IdentityXServices/rest/v1/ "));
+		assertEquals(1, IdxTenantRepoFactoryRegistry.size());
+	}
+
+	@Test
+	public void configuredSettingsReplaceAProvisionalTenant() throws Exception {
+		IdxTenant provisional = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL);
+		assertTrue(provisional.isProvisional());
+
+		IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, SETTINGS);
+		assertNotSame(provisional, tenant);
+		assertEquals(SETTINGS, tenant.getSettings());
+		assertSame(tenant, IdxTenantRepoFactoryRegistry.getTenant(BASE_URL));
+	}
+
+	@Test
+	public void conflictingSettingsInUseKeepTheTenant() throws Exception {
+		IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, SETTINGS);
+		assertSame(tenant, IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, OTHER_SETTINGS));
+		assertEquals(SETTINGS, tenant.getSettings());
+	}
+
+	@Test
+	public void changedSettingsApplyOnceTheOldOnesAreNoLongerUsed() throws Exception {
+		IdxTenant tenant = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, SETTINGS);
+		Thread.sleep(500);
+
+		IdxTenant changed = IdxTenantRepoFactoryRegistry.getTenant(BASE_URL, OTHER_SETTINGS);
+		assertNotSame(tenant, changed);
+		assertEquals(OTHER_SETTINGS, changed.getSettings());
+		assertEquals(1, IdxTenantRepoFactoryRegistry.size());
+	}
+}
@@ -0,0 +1,40 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+
+public class IdxTenantTest {
+
+	@Test
+	public void findsTheConnectionManagerBehindTheHttpClient() throws IOException {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		try (CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).build()) {
+			assertSame(connectionManager, IdxTenant.findConnectionManager(new RequestExecutor(httpClient)));
+		}
+	}
+
+	@Test
+	public void findsNoConnectionManagerWhereThereIsNone() {
+		assertNull(IdxTenant.findConnectionManager(new RequestExecutor(null)));
+		assertNull(IdxTenant.findConnectionManager(null));
+	}
+
+	/**
+	 * Holds its HTTP client the way the SDK's request executor does, in a private field.
+	 */
+	private static final class RequestExecutor {
+		@SuppressWarnings("unused")
+		private final CloseableHttpClient httpClient;
+
+		RequestExecutor(CloseableHttpClient httpClient) {
+			this.httpClient = httpClient;
+		}
+	}
+}
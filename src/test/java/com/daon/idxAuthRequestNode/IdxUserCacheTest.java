@@ -0,0 +1,98 @@
+package com.daon.idxAuthRequestNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.daon.identityx.rest.model.pojo.User;
+
+/**
+ * Runs with the small cache and short TTLs configured for surefire in the pom, on a clock the tests move.
+ */
+public class IdxUserCacheTest {
+
+	private final AtomicLong now = new AtomicLong(1_000_000L);
+
+	private IdxTenant tenant;
+
+	@Before
+	public void createTenant() throws Exception {
+		IdxUserCache.setClock(now::get);
+		tenant = new IdxTenant("https://usercache.test", IdxTenant.PoolSettings.DEFAULT);
+		for (String userId : new String[] { "a", "b", "c", "d", "found", "unknown" }) {
+			IdxUserCache.invalidate(tenant, userId);
+		}
+	}
+
+	@After
+	public void closeTenant() {
+		tenant.close();
+		IdxUserCache.setClock(System::currentTimeMillis);
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntry() {
+		User a = new User();
+		IdxUserCache.put(tenant, "a", a);
+		IdxUserCache.put(tenant, "b", new User());
+		IdxUserCache.put(tenant, "c", new User());
+
+		// Reading "a" makes "b" the least recently used entry
+		assertSame(a, IdxUserCache.get(tenant, "a").getUser());
+		long evictions = IdxUserCache.getEvictionCount();
+		IdxUserCache.put(tenant, "d", new User());
+
+		assertEquals(evictions + 1, IdxUserCache.getEvictionCount());
+		assertEquals(3, IdxUserCache.size());
+		assertNull(IdxUserCache.get(tenant, "b"));
+		assertNotNull(IdxUserCache.get(tenant, "a"));
+		assertNotNull(IdxUserCache.get(tenant, "c"));
+		assertNotNull(IdxUserCache.get(tenant, "d"));
+	}
+
+	@Test
+	public void servesAnExpiredUserWithinTheStaleWindow() {
+		User user = new User();
+		IdxUserCache.put(tenant, "found", user);
+		now.addAndGet(300);
+
+		IdxUserCache.Entry entry = IdxUserCache.get(tenant, "found");
+		assertFalse(entry.isFresh());
+		IdxUserCache.Entry stale = IdxUserCache.getStale(entry);
+		assertNotNull(stale);
+		assertSame(user, stale.getUser());
+	}
+
+	@Test
+	public void doesNotServeAnEntryPastTheStaleWindow() {
+		IdxUserCache.put(tenant, "found", new User());
+		now.addAndGet(1_300);
+
+		assertNull(IdxUserCache.getStale(IdxUserCache.get(tenant, "found")));
+	}
+
+	@Test
+	public void neverServesANotFoundStale() {
+		IdxUserCache.put(tenant, "unknown", null);
+		IdxUserCache.Entry fresh = IdxUserCache.get(tenant, "unknown");
+		assertTrue(fresh.isFresh());
+		assertNull(fresh.getUser());
+
+		now.addAndGet(300);
+		assertNull(IdxUserCache.getStale(IdxUserCache.get(tenant, "unknown")));
+	}
+
+	@Test
+	public void missingEntryHasNoStaleFallback() {
+		assertNull(IdxUserCache.getStale(null));
+	}
+}